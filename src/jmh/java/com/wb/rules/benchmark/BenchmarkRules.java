@@ -0,0 +1,104 @@
+package com.wb.rules.benchmark;
+
+import com.wb.rules.entity.Order;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 基准测试用的规则集和订单数据
+ * 规则集取值：order、test 为 resources/rules 下的真实规则，synthetic-N 为N条按金额区间划分的规则
+ */
+final class BenchmarkRules {
+
+    private static final int SYNTHETIC_BAND = 10;
+
+    private BenchmarkRules() {
+    }
+
+    static String load(String ruleSet) {
+        if (ruleSet.startsWith("synthetic-")) {
+            return synthetic(Integer.parseInt(ruleSet.substring("synthetic-".length())));
+        }
+        String path = "rules/" + ruleSet + ".drl";
+        try (InputStream in = BenchmarkRules.class.getClassLoader().getResourceAsStream(path)) {
+            if (in == null) {
+                throw new IllegalArgumentException("规则集不存在: " + path);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 生成与order.drl结构相同的区间规则，每个订单只命中其中一条
+     */
+    static String synthetic(int ruleCount) {
+        StringBuilder drl = new StringBuilder(ruleCount * 160)
+                .append("package com.rules.benchmark\n\n")
+                .append("import com.wb.rules.entity.Order\n\n");
+        for (int i = 0; i < ruleCount; i++) {
+            drl.append("rule \"band_").append(i).append("\"\n")
+                    .append("when\n")
+                    .append("    $order: Order(amount >= ").append(i * SYNTHETIC_BAND)
+                    .append(" && amount < ").append((i + 1) * SYNTHETIC_BAND).append(")\n")
+                    .append("then\n")
+                    .append("    $order.setScore(").append(i).append(");\n")
+                    .append("end\n\n");
+        }
+        return drl.toString();
+    }
+
+    /**
+     * 生成固定种子的订单金额，覆盖规则集的所有金额区间
+     */
+    static double[] amounts(String ruleSet, int count) {
+        double max = ruleSet.startsWith("synthetic-")
+                ? Integer.parseInt(ruleSet.substring("synthetic-".length())) * SYNTHETIC_BAND
+                : 60000;
+        Random random = new Random(42);
+        double[] amounts = new double[count];
+        for (int i = 0; i < count; i++) {
+            amounts[i] = random.nextDouble() * max;
+        }
+        return amounts;
+    }
+
+    static List<Order> orders(double[] amounts) {
+        List<Order> orders = new ArrayList<>(amounts.length);
+        for (double amount : amounts) {
+            Order order = new Order();
+            order.setAmount(amount);
+            order.setScore(0.0);
+            orders.add(order);
+        }
+        return orders;
+    }
+
+    /**
+     * 每次执行前恢复订单金额，规则会修改金额和分数
+     */
+    static void reset(List<Order> orders, double[] amounts) {
+        for (int i = 0; i < amounts.length; i++) {
+            Order order = orders.get(i);
+            order.setAmount(amounts[i]);
+            order.setScore(0.0);
+            order.setMessage(null);
+        }
+    }
+
+    /**
+     * 真实规则的RHS里有System.out输出，测量时丢弃，避免控制台IO淹没规则本身的开销
+     */
+    static void silenceStdout() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+}
@@ -0,0 +1,53 @@
+package com.wb.rules.benchmark;
+
+import com.wb.rules.common.enums.RuleCompileMode;
+import com.wb.rules.service.RuleCompileCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 规则编译基准：每次调用在规则末尾追加不同的注释，使内容哈希不同，绕过编译缓存测量完整编译耗时
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RuleCompileBenchmark {
+
+    @Param({"order", "test", "synthetic-10", "synthetic-100", "synthetic-1000"})
+    public String ruleSet;
+
+    @Param({"DRL", "EXECUTABLE_MODEL"})
+    public RuleCompileMode compileMode;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private String ruleContent;
+    // 未注入orphan-ttl，校验产生的编译结果在下一次校验时即被清理
+    private RuleCompileCache compileCache;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ruleContent = BenchmarkRules.load(ruleSet);
+        compileCache = new RuleCompileCache();
+    }
+
+    @Benchmark
+    public String compile() {
+        return compileCache.validate(ruleContent + "\n// " + sequence.incrementAndGet() + "\n", compileMode);
+    }
+}
@@ -0,0 +1,180 @@
+package com.wb.rules.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wb.rules.common.enums.RuleCompileMode;
+import com.wb.rules.entity.DroolsRules;
+import com.wb.rules.entity.Order;
+import com.wb.rules.repository.DroolsRulesRepository;
+import com.wb.rules.service.DroolsDynamicService;
+import com.wb.rules.service.RuleCompileCache;
+import com.wb.rules.service.RuleMetrics;
+import com.wb.rules.service.RuleShadowService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.kie.api.KieBase;
+import org.kie.api.runtime.KieSession;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 规则执行热点路径基准：service直接调用DroolsDynamicService.executeRule，fresh和stateless作为会话策略的对照，
+ * 三种策略都是每个订单单独执行一次（与线上一致），使用同一个KieBase。
+ * 不依赖Spring容器和MySQL/Redis/RabbitMQ：规则表由桩实现提供，KieBase由RuleCompileCache按线上默认配置编译
+ * （包括规则数较多时的增量编译）
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RuleExecutionBenchmark {
+
+    private static final String RULE_KEY = "benchmark";
+
+    @State(Scope.Benchmark)
+    public static class RuleState {
+
+        @Param({"order", "test", "synthetic-10", "synthetic-100", "synthetic-1000"})
+        public String ruleSet;
+
+        @Param({"DRL", "EXECUTABLE_MODEL"})
+        public RuleCompileMode compileMode;
+
+        // service：线上入口DroolsDynamicService.executeRule；fresh：每个订单新建并释放会话；stateless：每个订单一次无状态会话
+        @Param({"service", "fresh", "stateless"})
+        public String strategy;
+
+        DroolsDynamicService droolsDynamicService;
+        KieBase kieBase;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            BenchmarkRules.silenceStdout();
+            String ruleContent = BenchmarkRules.load(ruleSet);
+            DroolsRules rules = new DroolsRules();
+            rules.setRuleKey(RULE_KEY);
+            rules.setRuleContent(ruleContent);
+            rules.setCompileMode(compileMode);
+            DroolsRulesRepository rulesRepository = Mockito.mock(DroolsRulesRepository.class);
+            Mockito.when(rulesRepository.findByRuleKeyAndStatusTrue(RULE_KEY)).thenReturn(Optional.of(rules));
+
+            RuleCompileCache compileCache = new RuleCompileCache();
+            // 与application.yml的默认配置一致
+            ReflectionTestUtils.setField(compileCache, "orphanTtlMillis", 300000L);
+            ReflectionTestUtils.setField(compileCache, "incrementalEnabled", true);
+            ReflectionTestUtils.setField(compileCache, "incrementalMinRules", 50);
+            SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+            droolsDynamicService = new DroolsDynamicService(rulesRepository, compileCache, meterRegistry,
+                    new RuleMetrics(meterRegistry), new RuleShadowService(compileCache, meterRegistry),
+                    new ObjectMapper(), event -> { });
+            // 与application.yml的默认配置一致
+            ReflectionTestUtils.setField(droolsDynamicService, "poolMaxIdle", 16);
+            ReflectionTestUtils.setField(droolsDynamicService, "poolMinIdle", 2);
+            ReflectionTestUtils.setField(droolsDynamicService, "reloadThreads", 1);
+            ReflectionTestUtils.setField(droolsDynamicService, "reloadQueueCapacity", 1);
+            ReflectionTestUtils.setField(droolsDynamicService, "cacheMaxWeight", 100000L);
+            ReflectionTestUtils.setField(droolsDynamicService, "cacheWeigher", "rules");
+            ReflectionTestUtils.setField(droolsDynamicService, "cacheExpireAfterAccess", Duration.ofHours(6));
+            droolsDynamicService.init();
+
+            // 同一规则键、同一内容再次获取不会重新编译，得到服务加载时使用的KieBase（共享缓存条目或增量模块）
+            kieBase = compileCache.acquire(RULE_KEY, ruleContent, compileMode);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            droolsDynamicService.destroy();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class FactState {
+
+        // 预先构建的订单批次数，测量时循环使用
+        private static final int RING_SIZE = 1024;
+
+        // 每次执行的订单数
+        @Param({"1", "10", "100"})
+        public int factCount;
+
+        double[] amounts;
+        List<Order>[] batches;
+        int next;
+
+        @Setup(Level.Iteration)
+        @SuppressWarnings("unchecked")
+        public void setUp(RuleState ruleState) {
+            amounts = BenchmarkRules.amounts(ruleState.ruleSet, factCount);
+            batches = new List[RING_SIZE];
+            for (int i = 0; i < RING_SIZE; i++) {
+                batches[i] = BenchmarkRules.orders(amounts);
+            }
+            next = 0;
+        }
+
+        /**
+         * 取下一批订单。规则会修改订单，整圈用完后一次恢复全部批次，摊到每次调用只有几次字段写入，
+         * 不使用Level.Invocation的Setup，避免逐次计时的开销干扰亚毫秒级的测量
+         */
+        List<Order> nextBatch() {
+            if (next == RING_SIZE) {
+                for (List<Order> batch : batches) {
+                    BenchmarkRules.reset(batch, amounts);
+                }
+                next = 0;
+            }
+            return batches[next++];
+        }
+    }
+
+    @Benchmark
+    public int execute(RuleState ruleState, FactState factState) {
+        List<Order> orders = factState.nextBatch();
+        switch (ruleState.strategy) {
+            case "service":
+                for (Order order : orders) {
+                    ruleState.droolsDynamicService.executeRule(RULE_KEY, order);
+                }
+                return orders.size();
+            case "fresh":
+                for (Order order : orders) {
+                    executeFresh(ruleState.kieBase, order);
+                }
+                return orders.size();
+            case "stateless":
+                for (Order order : orders) {
+                    ruleState.kieBase.newStatelessKieSession().execute(order);
+                }
+                return orders.size();
+            default:
+                throw new IllegalArgumentException("未知的会话策略: " + ruleState.strategy);
+        }
+    }
+
+    private static int executeFresh(KieBase kieBase, Order order) {
+        KieSession kieSession = kieBase.newKieSession();
+        try {
+            kieSession.insert(order);
+            return kieSession.fireAllRules();
+        } finally {
+            kieSession.dispose();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.wb.rules.common.enums;
+
+public enum RescoreJobStatus {
+
+    RUNNING("执行中"),
+    PAUSED("已暂停，可从断点继续"),
+    COMPLETED("已完成"),
+    FAILED("失败，可从断点继续");
+
+    private final String message;
+
+    RescoreJobStatus(String message) {
+        this.message = message;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
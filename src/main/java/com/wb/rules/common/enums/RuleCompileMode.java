@@ -0,0 +1,21 @@
+package com.wb.rules.common.enums;
+
+public enum RuleCompileMode {
+
+    DRL("DRL编译，约束由MVEL解释执行"),
+    EXECUTABLE_MODEL("可执行模型，约束编译为Java lambda");
+
+    private final String message;
+
+    RuleCompileMode(String message) {
+        this.message = message;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public static RuleCompileMode orDefault(RuleCompileMode mode) {
+        return mode == null ? DRL : mode;
+    }
+}
@@ -14,6 +14,7 @@ public enum RuleResultCode {
     FORBIDDEN(403, "禁止访问"),
     NOT_FOUND(404, "资源不存在"),
     METHOD_NOT_ALLOWED(405, "请求方法不允许"),
+    TOO_MANY_REQUESTS(429, "请求过多"),
     
     // 服务端错误
     SYSTEM_ERROR(500, "系统错误"),
@@ -13,6 +13,7 @@ import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.rabbit.retry.RejectAndDontRequeueRecoverer;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.retry.interceptor.RetryOperationsInterceptor;
@@ -24,6 +25,8 @@ import java.util.HashMap;
 @RequiredArgsConstructor
 public class RabbitConfig {
 
+    public static final String RULE_UPDATE_DELAY_QUEUE = "rule.update.delay.queue";
+
     //todo 这里需要优化
     @Value("${app.mq.max-retry-count:3}")
     private int maxRetryCount;
@@ -39,6 +42,15 @@ public class RabbitConfig {
     @Value("${app.mq.retry.max-interval:10000}")
     private int maxInterval;
 
+    @Value("${app.mq.consumer.batch.size:100}")
+    private int batchSize;
+
+    @Value("${app.mq.consumer.batch.receive-timeout:200}")
+    private long batchReceiveTimeout;
+
+    @Value("${app.mq.consumer.in-progress-delay:30000}")
+    private int inProgressDelay;
+
 
     private final CachingConnectionFactory connectionFactory;
     private final MessageLogService messageLogService;
@@ -57,7 +69,7 @@ public class RabbitConfig {
             String msgId = correlationData != null ? correlationData.getId() : "unknown";
             if (ack){
                 //messageLogService.updateStatus(msgId, 1); // 更新状态为成功
-                log.info("消息 {} 发送成功", msgId);
+                log.debug("消息 {} 发送成功", msgId);
             }else{
                 log.error("消息 {} 发送失败，原因: {}", msgId, cause);
             }
@@ -75,6 +87,16 @@ public class RabbitConfig {
         return new Queue("rule.update.queue", true, false, false, args);
     }
 
+    //声明延迟队列：正在被其他消费者处理的消息在此等待，过期后经规则交换机回到更新队列
+    @Bean
+    public Queue ruleUpdateDelayQueue() {
+        HashMap<String, Object> args = new HashMap<>();
+        args.put("x-dead-letter-exchange", "rule.exchange");
+        args.put("x-dead-letter-routing-key", "rule.update");
+        args.put("x-message-ttl", inProgressDelay);
+        return new Queue(RULE_UPDATE_DELAY_QUEUE, true, false, false, args);
+    }
+
     //声明死信队列
     @Bean
     public Queue ruleDlq(){
@@ -112,6 +134,24 @@ public class RabbitConfig {
         return factory;
     }
 
+    /**
+     * 批量消费：一次最多取batchSize条消息交给监听器，等待receiveTimeout毫秒仍未取满时按已取到的数量处理。
+     * 手动确认，由监听器在处理完成后确认整批消息
+     */
+    @Bean
+    @ConditionalOnProperty(name = "app.mq.consumer.batch.enabled", havingValue = "true")
+    public SimpleRabbitListenerContainerFactory ruleUpdateBatchContainerFactory(ConnectionFactory connectionFactory) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        factory.setConnectionFactory(connectionFactory);
+        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        factory.setPrefetchCount(batchSize);
+        factory.setReceiveTimeout(batchReceiveTimeout);
+        return factory;
+    }
+
     @Bean
     public RetryOperationsInterceptor retryInterceptor(){
         return RetryInterceptorBuilder.stateless()
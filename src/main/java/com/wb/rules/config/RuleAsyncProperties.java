@@ -0,0 +1,35 @@
+package com.wb.rules.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 异步规则执行配置：共享执行线程池，以及每个规则键的并发隔离（舱壁）限制
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.rules.async")
+public class RuleAsyncProperties {
+
+    private int threads = 32;             // 执行线程数
+    private int queueCapacity = 1000;     // 线程池等待队列上限
+    private Limit bulkhead = new Limit(); // 规则键默认限制
+    private Map<String, Limit> bulkheads = new HashMap<>(); // 按规则键覆盖默认限制
+    private int bulkheadMaxKeys = 10000;                    // 最多保留的规则键舱壁数
+    private Duration bulkheadIdle = Duration.ofMinutes(10); // 舱壁空闲多久后回收
+
+    @Data
+    public static class Limit {
+        private int maxConcurrent = 8; // 同一规则键同时执行数
+        private int maxQueue = 100;    // 同一规则键排队数，超出直接拒绝
+    }
+
+    public Limit limitOf(String ruleKey) {
+        return bulkheads.getOrDefault(ruleKey, bulkhead);
+    }
+}
@@ -0,0 +1,37 @@
+package com.wb.rules.config;
+
+import org.springframework.amqp.core.AnonymousQueue;
+import org.springframework.amqp.core.Base64UrlNamingStrategy;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.FanoutExchange;
+import org.springframework.amqp.core.Queue;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 规则更新广播：fanout交换机 + 每个节点一个自动删除的匿名队列，每条更新消息所有节点都会收到
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.mq.broadcast.enabled", havingValue = "true")
+public class RuleBroadcastConfig {
+
+    public static final String BROADCAST_EXCHANGE = "rule.broadcast.exchange";
+
+    @Bean
+    public FanoutExchange ruleBroadcastExchange() {
+        return new FanoutExchange(BROADCAST_EXCHANGE, true, false);
+    }
+
+    // 节点下线后队列随连接删除，不积压消息
+    @Bean
+    public Queue ruleBroadcastQueue() {
+        return new AnonymousQueue(new Base64UrlNamingStrategy("rule.broadcast."));
+    }
+
+    @Bean
+    public Binding ruleBroadcastBinding() {
+        return BindingBuilder.bind(ruleBroadcastQueue()).to(ruleBroadcastExchange());
+    }
+}
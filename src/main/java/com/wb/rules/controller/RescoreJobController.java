@@ -0,0 +1,73 @@
+package com.wb.rules.controller;
+
+import com.wb.rules.dto.RescoreJobProgress;
+import com.wb.rules.service.RescoreJobService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+/**
+ * 订单批量重算任务接口：启动、暂停、从断点继续、调整限速、查询进度
+ */
+@RestController
+@RequestMapping("/api/rescore")
+@Slf4j
+@RequiredArgsConstructor
+public class RescoreJobController {
+
+    private final RescoreJobService rescoreJobService;
+
+    /**
+     * 用指定规则重算orders表全部订单，maxRate为每秒最多处理的订单数，不传不限速
+     */
+    @PostMapping("/jobs")
+    public ResponseEntity<RescoreJobProgress> start(
+            @RequestParam String ruleKey,
+            @RequestParam(required = false) Integer maxRate) {
+        return ResponseEntity.ok(rescoreJobService.start(ruleKey, maxRate));
+    }
+
+    /**
+     * 暂停任务，当前页处理完成后停止
+     */
+    @PostMapping("/jobs/{id}/pause")
+    public ResponseEntity<RescoreJobProgress> pause(@PathVariable Long id) {
+        return ResponseEntity.ok(rescoreJobService.pause(id));
+    }
+
+    /**
+     * 从断点继续已暂停或失败的任务
+     */
+    @PostMapping("/jobs/{id}/resume")
+    public ResponseEntity<RescoreJobProgress> resume(
+            @PathVariable Long id,
+            @RequestParam(required = false) Integer maxRate) {
+        return ResponseEntity.ok(rescoreJobService.resume(id, maxRate));
+    }
+
+    /**
+     * 调整运行中任务的限速
+     */
+    @PutMapping("/jobs/{id}/rate")
+    public ResponseEntity<RescoreJobProgress> setMaxRate(
+            @PathVariable Long id,
+            @RequestParam(required = false) Integer maxRate) {
+        return ResponseEntity.ok(rescoreJobService.setMaxRate(id, maxRate));
+    }
+
+    /**
+     * 查询任务进度
+     */
+    @GetMapping("/jobs/{id}")
+    public ResponseEntity<RescoreJobProgress> getProgress(@PathVariable Long id) {
+        return ResponseEntity.ok(rescoreJobService.getProgress(id));
+    }
+
+    @GetMapping("/jobs")
+    public ResponseEntity<List<RescoreJobProgress>> getJobs() {
+        return ResponseEntity.ok(rescoreJobService.getJobs());
+    }
+}
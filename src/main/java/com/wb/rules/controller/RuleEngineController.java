@@ -1,18 +1,49 @@
 package com.wb.rules.controller;
 
+import com.wb.rules.common.enums.RuleCompileMode;
+import com.wb.rules.common.enums.RuleResultCode;
+import com.wb.rules.common.exceptions.RuleException;
+import com.wb.rules.dto.ArtifactStoreStats;
+import com.wb.rules.dto.BatchExecutionResult;
+import com.wb.rules.dto.BulkheadStats;
+import com.wb.rules.dto.CompileCacheStats;
+import com.wb.rules.dto.RuleCacheStats;
 import com.wb.rules.dto.RuleExecutionResult;
+import com.wb.rules.dto.RulePreloadStatus;
+import com.wb.rules.dto.RulePropagationStatus;
+import com.wb.rules.dto.RuleUpdateReport;
+import com.wb.rules.dto.SessionPoolStats;
+import com.wb.rules.dto.ShadowStats;
 import com.wb.rules.entity.DroolsRules;
 import com.wb.rules.entity.Order;
+import com.wb.rules.entity.RuleTemplateParam;
 import com.wb.rules.repository.DroolsRulesRepository;
+import com.wb.rules.service.AsyncRuleExecutionService;
 import com.wb.rules.service.DroolsDynamicService;
+import com.wb.rules.service.RuleArtifactStore;
+import com.wb.rules.service.RuleCompileCache;
 import com.wb.rules.service.RuleManagementService;
+import com.wb.rules.service.RuleMetrics;
+import com.wb.rules.service.RulePipelineService;
+import com.wb.rules.service.RulePropagationTracker;
+import com.wb.rules.service.RuleShadowService;
+import com.wb.rules.service.support.RuleTraceListener;
+import com.wb.rules.task.RulePreloadRunner;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @RestController
 @RequestMapping("/api/rules")
@@ -23,16 +54,30 @@ public class RuleEngineController {
     private final DroolsDynamicService droolsDynamicService;
     private final RuleManagementService ruleManagementService;
     private final DroolsRulesRepository droolsRulesRepository;
+    private final RuleCompileCache ruleCompileCache;
+    private final RuleArtifactStore ruleArtifactStore;
+    private final RulePreloadRunner rulePreloadRunner;
+    private final RuleMetrics ruleMetrics;
+    private final AsyncRuleExecutionService asyncRuleExecutionService;
+    private final RulePipelineService rulePipelineService;
+    private final RuleShadowService ruleShadowService;
+    private final RulePropagationTracker rulePropagationTracker;
 
     /**
-     * 执行规则接口
+     * 执行规则接口，trace=true时返回触发的规则及耗时
      */
     @PostMapping("/execute/{ruleKey}")
     public ResponseEntity<RuleExecutionResult> executeRule(
             @PathVariable String ruleKey,
+            @RequestParam(defaultValue = "false") boolean trace,
             @RequestBody Order order) {
 
         try {
+            if (trace) {
+                RuleTraceListener traceListener = new RuleTraceListener();
+                Order result = droolsDynamicService.executeRule(ruleKey, order, traceListener);
+                return ResponseEntity.ok(RuleExecutionResult.success(result, traceListener.toTrace()));
+            }
             Order result = droolsDynamicService.executeRule(ruleKey, order);
              return ResponseEntity.ok(RuleExecutionResult.success(result));
         } catch (Exception e) {
@@ -41,13 +86,81 @@ public class RuleEngineController {
         }
     }
 
+    /**
+     * 异步执行规则接口，规则键过载时直接返回429
+     */
+    @PostMapping("/execute/{ruleKey}/async")
+    public CompletableFuture<ResponseEntity<RuleExecutionResult>> executeRuleAsync(
+            @PathVariable String ruleKey,
+            @RequestBody Order order) {
+        return asyncRuleExecutionService.executeRule(ruleKey, order)
+                .thenApply(result -> ResponseEntity.ok(RuleExecutionResult.success(result)))
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if (cause instanceof RuleException ruleException
+                            && ruleException.getCode() == RuleResultCode.TOO_MANY_REQUESTS.getCode()) {
+                        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                                .body(RuleExecutionResult.error(cause.getMessage()));
+                    }
+                    return ResponseEntity.badRequest().body(RuleExecutionResult.error(cause.getMessage()));
+                });
+    }
+
+    /**
+     * 流水线执行规则接口：按ruleKeys顺序在同一个会话中依次执行各规则
+     */
+    @PostMapping("/pipeline")
+    public ResponseEntity<RuleExecutionResult> executePipeline(
+            @RequestParam List<String> ruleKeys,
+            @RequestBody Order order) {
+        try {
+            Order result = rulePipelineService.executePipeline(ruleKeys, order);
+            return ResponseEntity.ok(RuleExecutionResult.success(result));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest()
+                    .body(RuleExecutionResult.error(e.getMessage()));
+        }
+    }
+
+    /**
+     * 批量执行规则接口
+     */
+    @PostMapping("/execute/{ruleKey}/batch")
+    public ResponseEntity<BatchExecutionResult> executeRuleBatch(
+            @PathVariable String ruleKey,
+            @RequestBody List<Order> orders) {
+        return ResponseEntity.ok(droolsDynamicService.executeBatch(ruleKey, orders));
+    }
+
+    /**
+     * 流式执行规则接口：请求体为NDJSON订单，每行返回一条执行结果，边读边写。
+     * 直接读写请求和响应流，不走异步请求，长时间的流不受异步超时限制
+     */
+    @PostMapping(value = "/execute/{ruleKey}/stream", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public void executeRuleStream(
+            @PathVariable String ruleKey,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        response.setCharacterEncoding("UTF-8");
+        droolsDynamicService.executeStream(ruleKey, request.getInputStream(), response.getOutputStream());
+    }
+
     /**
      * 重载规则接口
      */
     @PostMapping("/reload/{ruleKey}")
     public ResponseEntity<String> reloadRule(@PathVariable String ruleKey) {
         try {
-            droolsDynamicService.reloadRule(ruleKey);
+            if (!droolsDynamicService.reloadRule(ruleKey).join()) {
+                return ResponseEntity.badRequest().body("规则重载失败，已保留当前版本: " + ruleKey);
+            }
+            RuleUpdateReport report = ruleCompileCache.getUpdateReport(ruleKey);
+            if (report != null && report.isIncremental()) {
+                return ResponseEntity.ok(String.format("规则重载成功: %s，新增%d条，删除%d条，修改%d条",
+                        ruleKey, report.getAdded(), report.getRemoved(), report.getChanged()));
+            }
             return ResponseEntity.ok("规则重载成功: " + ruleKey);
         } catch (Exception e) {
             return ResponseEntity.badRequest()
@@ -68,6 +181,97 @@ public class RuleEngineController {
         }
     }
 
+    /**
+     * 更新规则模板(.drt)，用已有参数行重新生成规则
+     */
+    @PutMapping(value = "/{ruleKey}/template", consumes = MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<DroolsRules> updateTemplate(@PathVariable String ruleKey, @RequestBody String templateContent) {
+        try {
+            return ResponseEntity.ok(ruleManagementService.updateTemplate(ruleKey, templateContent));
+        } catch (Exception e) {
+            throw new RuntimeException("规则模板更新失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 获取规则模板参数行
+     */
+    @GetMapping("/{ruleKey}/template/params")
+    public ResponseEntity<List<RuleTemplateParam>> getTemplateParams(@PathVariable String ruleKey) {
+        return ResponseEntity.ok(ruleManagementService.getTemplateParams(ruleKey));
+    }
+
+    /**
+     * 新增或修改规则模板参数行
+     */
+    @PutMapping("/{ruleKey}/template/params/{rowKey}")
+    public ResponseEntity<DroolsRules> saveTemplateParam(
+            @PathVariable String ruleKey,
+            @PathVariable String rowKey,
+            @RequestBody Map<String, Object> params) {
+        try {
+            return ResponseEntity.ok(ruleManagementService.saveTemplateParam(ruleKey, rowKey, params));
+        } catch (Exception e) {
+            throw new RuntimeException("模板参数保存失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 删除规则模板参数行
+     */
+    @DeleteMapping("/{ruleKey}/template/params/{rowKey}")
+    public ResponseEntity<DroolsRules> deleteTemplateParam(@PathVariable String ruleKey, @PathVariable String rowKey) {
+        try {
+            return ResponseEntity.ok(ruleManagementService.deleteTemplateParam(ruleKey, rowKey));
+        } catch (Exception e) {
+            throw new RuntimeException("模板参数删除失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 开启影子执行：按采样率用候选版本(请求体DRL)执行线上订单副本并比较结果
+     */
+    @PutMapping(value = "/{ruleKey}/shadow", consumes = MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<String> startShadow(
+            @PathVariable String ruleKey,
+            @RequestParam double sampleRate,
+            @RequestParam(required = false) RuleCompileMode compileMode,
+            @RequestBody String candidateContent) {
+        try {
+            ruleShadowService.start(ruleKey, candidateContent, compileMode, sampleRate);
+            return ResponseEntity.ok("影子执行已开启: " + ruleKey);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("影子执行开启失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 关闭影子执行
+     */
+    @DeleteMapping("/{ruleKey}/shadow")
+    public ResponseEntity<String> stopShadow(@PathVariable String ruleKey) {
+        ruleShadowService.stop(ruleKey);
+        return ResponseEntity.ok("影子执行已关闭: " + ruleKey);
+    }
+
+    /**
+     * 获取规则版本在各节点的应用情况，用于统计一次变更传播到整个集群的耗时
+     */
+    @GetMapping("/{ruleKey}/propagation")
+    public ResponseEntity<RulePropagationStatus> getPropagationStatus(
+            @PathVariable String ruleKey,
+            @RequestParam String version) {
+        return ResponseEntity.ok(rulePropagationTracker.getStatus(ruleKey, version));
+    }
+
+    /**
+     * 获取影子执行的比较结果
+     */
+    @GetMapping("/shadow")
+    public ResponseEntity<Map<String, ShadowStats>> getShadowStats() {
+        return ResponseEntity.ok(ruleShadowService.getStats());
+    }
+
     /**
      * 获取已加载规则列表
      */
@@ -76,6 +280,80 @@ public class RuleEngineController {
         return ResponseEntity.ok(droolsDynamicService.getLoadedRuleKeys());
     }
 
+    /**
+     * 获取会话池状态
+     */
+    @GetMapping("/pools")
+    public ResponseEntity<Map<String, SessionPoolStats>> getSessionPoolStats() {
+        return ResponseEntity.ok(droolsDynamicService.getSessionPoolStats());
+    }
+
+    /**
+     * 获取各规则键的并发隔离状态
+     */
+    @GetMapping("/bulkheads")
+    public ResponseEntity<Map<String, BulkheadStats>> getBulkheadStats() {
+        return ResponseEntity.ok(asyncRuleExecutionService.getBulkheadStats());
+    }
+
+    /**
+     * 获取规则缓存状态
+     */
+    @GetMapping("/cache")
+    public ResponseEntity<RuleCacheStats> getRuleCacheStats() {
+        return ResponseEntity.ok(droolsDynamicService.getCacheStats());
+    }
+
+    /**
+     * 获取编译缓存状态
+     */
+    @GetMapping("/compile-cache")
+    public ResponseEntity<CompileCacheStats> getCompileCacheStats() {
+        return ResponseEntity.ok(ruleCompileCache.stats());
+    }
+
+    /**
+     * 获取集群共享编译产物的命中、发布和拒绝情况
+     */
+    @GetMapping("/compile-cache/artifacts")
+    public ResponseEntity<ArtifactStoreStats> getArtifactStoreStats() {
+        return ResponseEntity.ok(ruleArtifactStore.stats());
+    }
+
+    /**
+     * 获取各规则键最近一次编译的规则增删改数量
+     */
+    @GetMapping("/compile-cache/updates")
+    public ResponseEntity<Map<String, RuleUpdateReport>> getRuleUpdateReports() {
+        return ResponseEntity.ok(ruleCompileCache.getUpdateReports());
+    }
+
+    /**
+     * 获取启动预加载结果
+     */
+    @GetMapping("/preload")
+    public ResponseEntity<RulePreloadStatus> getPreloadStatus() {
+        return ResponseEntity.ok(rulePreloadRunner.getStatus());
+    }
+
+    /**
+     * 查询规则触发指标是否开启
+     */
+    @GetMapping("/metrics")
+    public ResponseEntity<Boolean> isMetricsEnabled() {
+        return ResponseEntity.ok(ruleMetrics.isEnabled());
+    }
+
+    /**
+     * 开启或关闭规则触发指标，指标通过 /actuator/metrics/rules.fired 查看
+     */
+    @PutMapping("/metrics")
+    public ResponseEntity<Boolean> setMetricsEnabled(@RequestParam boolean enabled) {
+        ruleMetrics.setEnabled(enabled);
+        log.info("规则触发指标已{}", enabled ? "开启" : "关闭");
+        return ResponseEntity.ok(enabled);
+    }
+
     /**
      * 获取所有规则定义
      */
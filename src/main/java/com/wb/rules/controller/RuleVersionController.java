@@ -0,0 +1,102 @@
+package com.wb.rules.controller;
+
+import com.wb.rules.dto.RuleExecutionResult;
+import com.wb.rules.dto.RuleVersionStatus;
+import com.wb.rules.entity.Order;
+import com.wb.rules.service.RuleEngineService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * 多版本规则引擎接口：加载版本、切换正式版本、设置灰度流量
+ */
+@RestController
+@RequestMapping("/api/engine")
+@Slf4j
+@RequiredArgsConstructor
+public class RuleVersionController {
+
+    private final RuleEngineService ruleEngineService;
+
+    /**
+     * 加载规则版本，请求体为DRL内容
+     */
+    @PostMapping(value = "/{ruleKey}/versions/{version}", consumes = MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<RuleVersionStatus> loadVersion(
+            @PathVariable String ruleKey,
+            @PathVariable String version,
+            @RequestBody String ruleContent) {
+        ruleEngineService.loadRule(ruleContent, version, ruleKey);
+        return ResponseEntity.ok(ruleEngineService.getVersionStatus(ruleKey));
+    }
+
+    /**
+     * 按正式/灰度权重执行规则，响应头X-Rule-Version为实际执行的版本
+     */
+    @PostMapping("/{ruleKey}/execute")
+    public ResponseEntity<RuleExecutionResult> execute(@PathVariable String ruleKey, @RequestBody Order order) {
+        try {
+            String version = ruleEngineService.executeRule(order, ruleKey);
+            return ResponseEntity.ok().header("X-Rule-Version", version).body(RuleExecutionResult.success(order));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(RuleExecutionResult.error(e.getMessage()));
+        }
+    }
+
+    /**
+     * 执行指定版本
+     */
+    @PostMapping("/{ruleKey}/versions/{version}/execute")
+    public ResponseEntity<RuleExecutionResult> executeVersion(
+            @PathVariable String ruleKey,
+            @PathVariable String version,
+            @RequestBody Order order) {
+        try {
+            ruleEngineService.executeRule(order, version, ruleKey);
+            return ResponseEntity.ok().header("X-Rule-Version", version).body(RuleExecutionResult.success(order));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(RuleExecutionResult.error(e.getMessage()));
+        }
+    }
+
+    /**
+     * 设置正式版本
+     */
+    @PutMapping("/{ruleKey}/active/{version}")
+    public ResponseEntity<RuleVersionStatus> activate(@PathVariable String ruleKey, @PathVariable String version) {
+        ruleEngineService.activate(ruleKey, version);
+        return ResponseEntity.ok(ruleEngineService.getVersionStatus(ruleKey));
+    }
+
+    /**
+     * 设置灰度版本，percent为路由到灰度版本的流量百分比
+     */
+    @PutMapping("/{ruleKey}/canary/{version}")
+    public ResponseEntity<RuleVersionStatus> setCanary(
+            @PathVariable String ruleKey,
+            @PathVariable String version,
+            @RequestParam int percent) {
+        ruleEngineService.setCanary(ruleKey, version, percent);
+        return ResponseEntity.ok(ruleEngineService.getVersionStatus(ruleKey));
+    }
+
+    /**
+     * 取消灰度
+     */
+    @DeleteMapping("/{ruleKey}/canary")
+    public ResponseEntity<RuleVersionStatus> clearCanary(@PathVariable String ruleKey) {
+        ruleEngineService.setCanary(ruleKey, null, 0);
+        return ResponseEntity.ok(ruleEngineService.getVersionStatus(ruleKey));
+    }
+
+    /**
+     * 获取版本路由状态
+     */
+    @GetMapping("/{ruleKey}")
+    public ResponseEntity<RuleVersionStatus> getVersionStatus(@PathVariable String ruleKey) {
+        return ResponseEntity.ok(ruleEngineService.getVersionStatus(ruleKey));
+    }
+}
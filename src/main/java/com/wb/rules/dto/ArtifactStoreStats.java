@@ -0,0 +1,18 @@
+package com.wb.rules.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ArtifactStoreStats {
+    private boolean enabled;
+    private String droolsVersion;
+    private long hits;       // 从Redis加载编译产物的次数
+    private long misses;
+    private long rejected;   // 格式、版本或校验和不符被拒绝的产物数
+    private long published;
+    private long errors;     // Redis访问或产物加载异常数
+}
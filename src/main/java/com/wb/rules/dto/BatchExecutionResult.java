@@ -0,0 +1,22 @@
+package com.wb.rules.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatchExecutionResult {
+    private int total;
+    private int successCount;
+    private int failureCount;
+    private List<BatchItemResult> results; // 与入参顺序一致
+
+    public static BatchExecutionResult of(List<BatchItemResult> results) {
+        int successCount = (int) results.stream().filter(BatchItemResult::isSuccess).count();
+        return new BatchExecutionResult(results.size(), successCount, results.size() - successCount, results);
+    }
+}
@@ -0,0 +1,24 @@
+package com.wb.rules.dto;
+
+import com.wb.rules.entity.Order;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatchItemResult {
+    private long index; // 对应入参中的下标，流式执行时为行序号
+    private boolean success;
+    private String message;
+    private Order data;
+
+    public static BatchItemResult success(long index, Order data) {
+        return new BatchItemResult(index, true, "执行成功", data);
+    }
+
+    public static BatchItemResult error(long index, String message) {
+        return new BatchItemResult(index, false, message, null);
+    }
+}
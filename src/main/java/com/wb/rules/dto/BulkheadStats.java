@@ -0,0 +1,18 @@
+package com.wb.rules.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BulkheadStats {
+    private String ruleKey;
+    private int maxConcurrent;
+    private int maxQueue;
+    private int active;
+    private int queued;
+    private long completed;
+    private long rejected;   // 超出排队上限被拒绝的次数
+}
@@ -0,0 +1,16 @@
+package com.wb.rules.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CompileCacheStats {
+    private int entries;        // 缓存中的KieBase数量
+    private int boundRuleKeys;  // 引用这些KieBase的规则键数量
+    private long hits;
+    private long misses;        // 本地未命中次数，含从共享编译产物加载的次数
+    private long evictions;
+}
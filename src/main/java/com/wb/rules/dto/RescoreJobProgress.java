@@ -0,0 +1,28 @@
+package com.wb.rules.dto;
+
+import com.wb.rules.common.enums.RescoreJobStatus;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class RescoreJobProgress {
+    private Long id;
+    private String ruleKey;
+    private RescoreJobStatus status;
+    private long lastId;        // 断点：已处理的最大订单ID
+    private long total;
+    private long processed;
+    private long failed;
+    private double percent;
+    private double currentRate; // 本次运行的平均处理速度（条/秒）
+    private Integer maxRate;
+    private String errorMsg;
+    private LocalDateTime startTime;
+    private LocalDateTime updateTime;
+    private LocalDateTime endTime;
+}
@@ -0,0 +1,20 @@
+package com.wb.rules.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class RuleCacheStats {
+    private long size;
+    private long weightedSize;  // 按权重策略统计的总权重（规则数或条目数）
+    private long maxWeight;
+    private long hitCount;
+    private long missCount;
+    private double hitRate;
+    private long evictionCount;
+    private long loadFailureCount;
+    private double averageLoadMillis;
+}
@@ -1,5 +1,6 @@
 package com.wb.rules.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.wb.rules.entity.Order;
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -12,12 +13,18 @@ public class RuleExecutionResult {
     private boolean success;
     private String message;
     private Order data;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private RuleTrace trace; // 仅在请求开启跟踪时返回
     
     public static RuleExecutionResult success(Order data) {
-        return new RuleExecutionResult(true, "执行成功", data);
+        return new RuleExecutionResult(true, "执行成功", data, null);
+    }
+
+    public static RuleExecutionResult success(Order data, RuleTrace trace) {
+        return new RuleExecutionResult(true, "执行成功", data, trace);
     }
     
     public static RuleExecutionResult error(String message) {
-        return new RuleExecutionResult(false, message, null);
+        return new RuleExecutionResult(false, message, null, null);
     }
 }
\ No newline at end of file
@@ -0,0 +1,15 @@
+package com.wb.rules.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class RuleFiring {
+    private String packageName;
+    private String ruleName;
+    private long startMicros;    // 相对本次执行开始的触发时间
+    private long durationMicros; // RHS执行耗时
+}
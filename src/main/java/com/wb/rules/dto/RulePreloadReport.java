@@ -0,0 +1,17 @@
+package com.wb.rules.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class RulePreloadReport {
+    private String ruleKey;
+    private Integer version;
+    private boolean success;
+    private long compileMillis;
+    private long warmupMillis;
+    private String errorMsg;
+}
@@ -0,0 +1,16 @@
+package com.wb.rules.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class RulePreloadStatus {
+    private String state; // NOT_STARTED, RUNNING, COMPLETED, TIMED_OUT, FAILED, DISABLED
+    private long totalMillis;
+    private List<RulePreloadReport> rules;
+}
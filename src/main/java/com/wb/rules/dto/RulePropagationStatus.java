@@ -0,0 +1,27 @@
+package com.wb.rules.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class RulePropagationStatus {
+    private String ruleKey;
+    private String ruleVersion;
+    private int appliedNodes;
+    private long maxLatencyMillis; // 最后一个节点应用完成距发布的时间
+    private List<NodeApplied> nodes;
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class NodeApplied {
+        private String nodeId;
+        private long appliedAt;     // 应用完成时间（毫秒时间戳）
+        private long latencyMillis; // 距发布的时间，受节点间时钟偏差影响
+    }
+}
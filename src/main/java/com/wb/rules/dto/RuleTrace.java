@@ -0,0 +1,15 @@
+package com.wb.rules.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class RuleTrace {
+    private List<RuleFiring> firings; // 按触发顺序
+    private long engineMicros;        // 插入事实到触发结束的总耗时
+}
@@ -0,0 +1,19 @@
+package com.wb.rules.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class RuleUpdateReport {
+    private String ruleKey;
+    private boolean incremental; // false表示完整编译
+    private int totalRules;
+    private int added;
+    private int removed;
+    private int changed;
+    private boolean headerChanged; // package、import、global、function等非规则部分是否变化
+    private long millis;
+}
@@ -0,0 +1,18 @@
+package com.wb.rules.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class RuleVersionStatus {
+    private String ruleKey;
+    private String activeVersion;
+    private String canaryVersion;
+    private int canaryPercent;           // 路由到灰度版本的流量百分比
+    private List<String> loadedVersions; // 按加载顺序，最多保留app.rules.engine.max-versions个
+}
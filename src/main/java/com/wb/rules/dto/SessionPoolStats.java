@@ -0,0 +1,19 @@
+package com.wb.rules.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class SessionPoolStats {
+    private String ruleKey;
+    private int maxIdle;
+    private int idle;
+    private int active;    // 借出中的会话数
+    private long created;
+    private long borrowed;
+    private long misses;   // 池空时临时创建的次数
+    private long discarded;
+}
@@ -0,0 +1,22 @@
+package com.wb.rules.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ShadowDiff {
+    private Long orderId;
+    private Double liveScore;
+    private Double candidateScore;
+    private Double liveAmount;
+    private Double candidateAmount;
+    private String liveMessage;
+    private String candidateMessage;
+    private String candidateError; // 候选版本执行异常时的错误信息
+    private LocalDateTime time;
+}
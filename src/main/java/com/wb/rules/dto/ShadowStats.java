@@ -0,0 +1,21 @@
+package com.wb.rules.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ShadowStats {
+    private String ruleKey;
+    private double sampleRate;
+    private long sampled;
+    private long dropped;    // 影子线程池已满被丢弃的样本数
+    private long compared;
+    private long mismatched;
+    private long failed;     // 候选版本执行异常数
+    private List<ShadowDiff> recentDiffs;
+}
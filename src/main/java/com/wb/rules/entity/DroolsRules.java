@@ -1,5 +1,6 @@
 package com.wb.rules.entity;
 
+import com.wb.rules.common.enums.RuleCompileMode;
 import jakarta.persistence.*;
 import lombok.Data;
 
@@ -22,6 +23,14 @@ public class DroolsRules {
     private Integer version = 1;
     private Boolean status = true;
     private String description;
+    @Enumerated(EnumType.STRING)
+    @Column(name = "compile_mode", length = 32)
+    private RuleCompileMode compileMode; // 为空时按DRL编译
+    @Lob
+    @Column(name = "template_content")
+    private String templateContent; // 规则模板(.drt)，不为空时ruleContent由模板和参数行生成
+    @Column(name = "template_version")
+    private Integer templateVersion;
     private LocalDateTime createdTime;
     private LocalDateTime updatedTime;
 }
\ No newline at end of file
@@ -3,6 +3,7 @@ package com.wb.rules.entity;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.Table;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -14,7 +15,7 @@ import java.time.LocalDateTime;
 @Builder
 @Data
 @Entity
-@Table(name = "mail_send_log")
+@Table(name = "mail_send_log", indexes = @Index(name = "idx_status_try_time", columnList = "status, try_time"))
 @NoArgsConstructor
 @AllArgsConstructor
 public class MessageLog {
@@ -28,7 +29,7 @@ public class MessageLog {
     @Column(name = "status")
     private Integer status = 0; // 0:投递中;1:投递成功;2:投递失败
 
-    @Column(name = "rule_key", unique = true)
+    @Column(name = "rule_key")
     private String ruleKey;
     
     @Column(name = "count")
@@ -45,4 +46,7 @@ public class MessageLog {
 
     @Column(name = "error_msg", length = 1000)
     private String errorMsg;
+
+    @Column(name = "message_content", columnDefinition = "MEDIUMTEXT")
+    private String messageContent; // 完整的RuleUpdateEvent（JSON），重发时使用
 }
\ No newline at end of file
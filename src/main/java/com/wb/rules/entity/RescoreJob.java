@@ -0,0 +1,37 @@
+package com.wb.rules.entity;
+
+import com.wb.rules.common.enums.RescoreJobStatus;
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+@Entity
+@Table(name = "rescore_job")
+public class RescoreJob {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "rule_key", length = 64)
+    private String ruleKey;
+
+    @Enumerated(EnumType.STRING)
+    @Column(length = 32)
+    private RescoreJobStatus status;
+
+    @Column(name = "last_id")
+    private Long lastId = 0L;     // 断点：已处理的最大订单ID
+    private Long total = 0L;      // 启动时待处理的订单数（估计值）
+    private Long processed = 0L;
+    private Long failed = 0L;
+    @Column(name = "max_rate")
+    private Integer maxRate;      // 每秒最多处理的订单数，为空不限速
+
+    @Column(name = "error_msg", length = 1000)
+    private String errorMsg;
+    private LocalDateTime startTime;
+    private LocalDateTime updateTime;
+    private LocalDateTime endTime;
+}
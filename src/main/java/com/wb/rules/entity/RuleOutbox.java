@@ -0,0 +1,43 @@
+package com.wb.rules.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+@Entity
+@Table(name = "rule_outbox",
+        indexes = {
+                @Index(name = "idx_status_id", columnList = "status, id"),
+                @Index(name = "idx_create_time", columnList = "create_time")
+        })
+public class RuleOutbox {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id; // 递增ID，中继按该游标顺序发布
+
+    @Column(name = "msg_id", length = 64, unique = true)
+    private String msgId;
+
+    @Column(name = "rule_key", length = 64)
+    private String ruleKey;
+
+    @Column(name = "rule_version", length = 50)
+    private String ruleVersion;
+
+    @Column(columnDefinition = "MEDIUMTEXT")
+    private String payload; // 完整的RuleUpdateEvent（JSON）
+
+    private Integer status = 0; // 0:待发布;1:已发布;2:发布失败
+    private Integer attempts = 0; // 被broker拒绝（nack）的次数，连接失败和确认超时不计入
+
+    @Column(name = "next_attempt_time")
+    private LocalDateTime nextAttemptTime; // 发布失败后退避到该时间再发送
+
+    @Column(name = "create_time")
+    private LocalDateTime createTime;
+
+    @Column(name = "sent_time")
+    private LocalDateTime sentTime;
+}
@@ -0,0 +1,27 @@
+package com.wb.rules.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+@Entity
+@Table(name = "rule_template_param",
+        uniqueConstraints = @UniqueConstraint(name = "uk_rule_row", columnNames = {"rule_key", "row_key"}))
+public class RuleTemplateParam {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "rule_key", length = 64)
+    private String ruleKey;
+
+    @Column(name = "row_key", length = 64)
+    private String rowKey; // 参数行标识，模板中以@{rowKey}引用，保证生成的规则名唯一
+
+    @Lob
+    private String params; // 参数行JSON，键与模板header列对应
+    private LocalDateTime createdTime;
+    private LocalDateTime updatedTime;
+}
@@ -0,0 +1,13 @@
+package com.wb.rules.event;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 进程内事件：规则键重载（或卸载）完成后发布，依赖该规则的派生缓存据此失效
+ */
+@Data
+@AllArgsConstructor
+public class RuleReloadedEvent {
+    private String ruleKey;
+}
@@ -14,4 +14,5 @@ public class RuleUpdateEvent implements Serializable {
     private String ruleContent;
     private String ruleType; // DRL, Excel等
     private String ruleKey;
+    private Long publishedAt; // 发布时间（毫秒时间戳），用于统计更新传播到各节点的耗时
 }
\ No newline at end of file
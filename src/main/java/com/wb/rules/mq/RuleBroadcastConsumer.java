@@ -0,0 +1,81 @@
+package com.wb.rules.mq;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.wb.rules.common.exceptions.RuleException;
+import com.wb.rules.event.RuleUpdateEvent;
+import com.wb.rules.service.DroolsDynamicService;
+import com.wb.rules.service.RuleEngineService;
+import com.wb.rules.service.RulePropagationTracker;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpRejectAndDontRequeueException;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+/**
+ * 广播模式的规则更新消费者：每个节点都消费每条更新消息，重载本节点的DroolsDynamicService和多版本引擎，
+ * 完成后记录本节点的应用时间。幂等只在节点内判断，不能使用集群共享的已处理标记，否则只有一个节点会更新
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "app.mq.broadcast.enabled", havingValue = "true")
+public class RuleBroadcastConsumer {
+
+    private final DroolsDynamicService droolsDynamicService;
+    private final RuleEngineService ruleEngineService;
+    private final RulePropagationTracker propagationTracker;
+    private final ObjectMapper objectMapper;
+
+    // 本节点最近处理过的消息ID
+    private final Cache<String, Boolean> processed = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(Duration.ofHours(1))
+            .build();
+
+    @RabbitListener(queues = "#{ruleBroadcastQueue.name}", containerFactory = "rabbitListenerContainerFactory")
+    public void handleRuleUpdate(org.springframework.amqp.core.Message message) {
+        String msgId = message.getMessageProperties().getMessageId();
+        if (msgId != null && processed.getIfPresent(msgId) != null) {
+            log.info("本节点已处理该广播消息，跳过: {}", msgId);
+            return;
+        }
+        RuleUpdateEvent event = parseMessage(message);
+        String ruleKey = event.getRuleKey();
+        if (ruleKey == null || event.getRuleVersion() == null) {
+            throw new AmqpRejectAndDontRequeueException("规则键和版本不能为空");
+        }
+
+        // 只重载本节点已加载的规则键，未加载的规则在首次执行时会读取最新版本
+        if (droolsDynamicService.getLoadedRuleKeys().contains(ruleKey)
+                && !droolsDynamicService.reloadRule(ruleKey).join()) {
+            throw new RuleException("规则重载失败: " + ruleKey);
+        }
+        String ruleContent = event.getRuleContent() != null
+                ? event.getRuleContent()
+                : ruleEngineService.getRuleContent(event.getRuleVersion(), ruleKey);
+        if (ruleContent != null) {
+            ruleEngineService.loadRule(ruleContent, event.getRuleVersion(), ruleKey);
+        }
+
+        if (msgId != null) {
+            processed.put(msgId, Boolean.TRUE);
+        }
+        propagationTracker.recordApplied(ruleKey, event.getRuleVersion(), event.getPublishedAt());
+    }
+
+    private RuleUpdateEvent parseMessage(org.springframework.amqp.core.Message message) {
+        try {
+            return objectMapper.readValue(new String(message.getBody(), StandardCharsets.UTF_8), RuleUpdateEvent.class);
+        } catch (Exception e) {
+            log.error("广播消息解析失败: {}", new String(message.getBody(), StandardCharsets.UTF_8), e);
+            throw new AmqpRejectAndDontRequeueException("消息格式错误");
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.wb.rules.mq;
+
+import com.wb.rules.common.enums.MessageStatus;
+import com.wb.rules.common.enums.RuleResultCode;
+import com.wb.rules.common.exceptions.RuleException;
+import com.wb.rules.entity.MessageLog;
+import com.wb.rules.event.RuleUpdateEvent;
+import com.wb.rules.service.MessageLogService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 规则更新发布流水线：待发布消息进入有界队列，由专用发布线程按批写入消息记录（JDBC批量插入）后连续发送，
+ * 不等待单条确认；未确认的消息数由窗口限制，窗口满时发布线程等待确认释放窗口。
+ * broker的ack/nack先进入内存队列，由定时任务按批更新mail_send_log：ack标记成功，nack交给重试任务尽快重发
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class RulePublishPipeline {
+
+    private final RabbitTemplate rabbitTemplate;
+    private final MessageLogService messageLogService;
+
+    private final ConcurrentLinkedQueue<String> confirmed = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<String> nacked = new ConcurrentLinkedQueue<>();
+
+    private BlockingQueue<PendingPublish> queue;
+    private Semaphore window;
+    private ExecutorService publishers;
+    private ScheduledExecutorService statusWriter;
+    private volatile boolean running = true;
+
+    @Value("${app.mq.publish.window:1000}")
+    private int windowSize;
+
+    @Value("${app.mq.publish.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${app.mq.publish.threads:2}")
+    private int threads;
+
+    @Value("${app.mq.publish.batch-size:100}")
+    private int batchSize;
+
+    @Value("${app.mq.publish.status-flush-interval:100}")
+    private long statusFlushInterval;
+
+    @PostConstruct
+    public void init() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        window = new Semaphore(windowSize);
+        publishers = Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("rule-publish-"));
+        for (int i = 0; i < threads; i++) {
+            publishers.execute(this::publishLoop);
+        }
+        statusWriter = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("rule-publish-status-"));
+        statusWriter.scheduleWithFixedDelay(this::flushStatus, statusFlushInterval, statusFlushInterval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        running = false;
+        publishers.shutdown();
+        try {
+            publishers.awaitTermination(10, TimeUnit.SECONDS);
+            // 等待已发送消息的确认，最后写一次状态
+            window.tryAcquire(windowSize, 5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        statusWriter.shutdown();
+        flushStatus();
+        if (!queue.isEmpty()) {
+            log.warn("发布流水线关闭，{}条消息未发布", queue.size());
+        }
+    }
+
+    /**
+     * 提交待发布消息，返回的future在broker确认后以消息ID完成，nack或发送失败时异常完成。
+     * 队列已满时直接失败，由调用方降速
+     */
+    public CompletableFuture<String> submit(String msgId, RuleUpdateEvent event, MessageLog messageLog,
+                                            String exchange, String routingKey) {
+        PendingPublish pending = new PendingPublish(msgId, event, messageLog, exchange, routingKey);
+        if (!running || !queue.offer(pending)) {
+            pending.future.completeExceptionally(
+                    new RuleException(RuleResultCode.TOO_MANY_REQUESTS, "规则更新发布队列已满"));
+        }
+        return pending.future;
+    }
+
+    /**
+     * 登记其他路径发送的消息，确认结果同样按批写入消息记录。
+     * 调用方须在发送前提交消息记录，否则确认早于提交时状态更新不到记录，消息会被重试任务重发
+     */
+    public void track(CorrelationData correlationData) {
+        correlationData.getFuture().whenComplete((confirm, e) ->
+                onConfirm(correlationData.getId(), e == null && confirm.isAck(),
+                        e != null ? e.getMessage() : confirm.getReason()));
+    }
+
+    private void publishLoop() {
+        List<PendingPublish> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingPublish first = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                publishBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("规则更新批量发布失败，数量={}", batch.size(), e);
+                batch.forEach(pending -> pending.future.completeExceptionally(e));
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 先批量写入消息记录，再逐条发送；写入失败时整批不发送
+     */
+    private void publishBatch(List<PendingPublish> batch) throws InterruptedException {
+        messageLogService.insertBatch(batch.stream().map(pending -> pending.messageLog).toList());
+        for (PendingPublish pending : batch) {
+            window.acquire();
+            CorrelationData correlationData = new CorrelationData(pending.msgId);
+            correlationData.getFuture().whenComplete((confirm, e) -> {
+                window.release();
+                boolean ack = e == null && confirm.isAck();
+                String reason = e != null ? e.getMessage() : confirm.getReason();
+                onConfirm(pending.msgId, ack, reason);
+                if (ack) {
+                    pending.future.complete(pending.msgId);
+                } else {
+                    pending.future.completeExceptionally(new RuleException("消息未被broker确认: " + reason));
+                }
+            });
+            try {
+                rabbitTemplate.convertAndSend(pending.exchange, pending.routingKey, pending.event, message -> {
+                    message.getMessageProperties().setCorrelationId(pending.msgId);
+                    message.getMessageProperties().setMessageId(pending.msgId);
+                    return message;
+                }, correlationData);
+            } catch (Exception e) {
+                // 未发出的消息不会有确认，直接按nack处理
+                correlationData.getFuture().completeExceptionally(e);
+            }
+        }
+    }
+
+    private void onConfirm(String msgId, boolean ack, String reason) {
+        if (ack) {
+            confirmed.add(msgId);
+        } else {
+            nacked.add(msgId);
+            log.warn("消息 {} 未被broker确认，原因: {}", msgId, reason);
+        }
+    }
+
+    private void flushStatus() {
+        try {
+            drain(confirmed, msgIds -> messageLogService.updateStatusBatch(msgIds, MessageStatus.SUCCESS.getCode()));
+            drain(nacked, msgIds -> messageLogService.markRetryBatch(msgIds, "broker未确认"));
+        } catch (Exception e) {
+            log.error("批量更新消息发送状态失败", e);
+        }
+    }
+
+    /**
+     * 按批取出并更新，更新失败的消息ID放回队列下次重试
+     */
+    private void drain(ConcurrentLinkedQueue<String> source, Function<List<String>, Integer> update) {
+        List<String> msgIds = new ArrayList<>(500);
+        String msgId;
+        while ((msgId = source.poll()) != null) {
+            msgIds.add(msgId);
+            if (msgIds.size() == 500) {
+                apply(source, msgIds, update);
+                msgIds = new ArrayList<>(500);
+            }
+        }
+        if (!msgIds.isEmpty()) {
+            apply(source, msgIds, update);
+        }
+    }
+
+    private void apply(ConcurrentLinkedQueue<String> source, List<String> msgIds,
+                       Function<List<String>, Integer> update) {
+        try {
+            update.apply(msgIds);
+        } catch (RuntimeException e) {
+            source.addAll(msgIds);
+            throw e;
+        }
+    }
+
+    private static final class PendingPublish {
+        private final String msgId;
+        private final RuleUpdateEvent event;
+        private final MessageLog messageLog;
+        private final String exchange;
+        private final String routingKey;
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+
+        private PendingPublish(String msgId, RuleUpdateEvent event, MessageLog messageLog,
+                               String exchange, String routingKey) {
+            this.msgId = msgId;
+            this.event = event;
+            this.messageLog = messageLog;
+            this.exchange = exchange;
+            this.routingKey = routingKey;
+        }
+    }
+}
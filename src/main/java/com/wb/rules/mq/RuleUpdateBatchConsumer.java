@@ -0,0 +1,247 @@
+package com.wb.rules.mq;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.Channel;
+import com.wb.rules.common.exceptions.RuleException;
+import com.wb.rules.event.RuleUpdateEvent;
+import com.wb.rules.service.IdempotencyStore;
+import com.wb.rules.service.MessageLogService;
+import com.wb.rules.service.RuleEngineService;
+import com.wb.rules.service.RulePropagationTracker;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 规则更新批量消费者：一次取一批消息，同一规则键只保留最新版本，被覆盖的旧版本不再编译；
+ * 各规则键的最新版本并行编译加载，处理完成后确认整批消息（包括被覆盖的消息）。
+ * 整批消息一次在幂等存储中占用，处理完成后一次标记完成，失败的消息释放占用等待重投
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "app.mq.consumer.batch.enabled", havingValue = "true")
+public class RuleUpdateBatchConsumer {
+
+    private final RuleEngineService ruleEngineService;
+    private final MessageLogService messageLogService;
+    private final RulePropagationTracker propagationTracker;
+    private final IdempotencyStore idempotencyStore;
+    private final ObjectMapper objectMapper;
+    private final RuleUpdateDelayer ruleUpdateDelayer;
+
+    private ExecutorService compileExecutor;
+
+    @Value("${app.mq.consumer.batch.compile-threads:4}")
+    private int compileThreads;
+
+    @PostConstruct
+    public void init() {
+        compileExecutor = Executors.newFixedThreadPool(Math.max(1, compileThreads),
+                new CustomizableThreadFactory("rule-update-batch-"));
+    }
+
+    @PreDestroy
+    public void destroy() {
+        compileExecutor.shutdownNow();
+    }
+
+    @RabbitListener(queues = "rule.update.queue", containerFactory = "ruleUpdateBatchContainerFactory")
+    public void handleRuleUpdates(List<Message> messages, Channel channel) throws IOException {
+        long start = System.currentTimeMillis();
+        Map<String, IdempotencyStore.Result> acquired = acquire(messages);
+        Set<String> seen = new HashSet<>();
+        Set<Long> rejected = new HashSet<>();
+        Map<String, Pending> latest = new LinkedHashMap<>(); // 规则键 -> 最新版本
+        int skipped = 0;
+
+        for (Message message : messages) {
+            long deliveryTag = message.getMessageProperties().getDeliveryTag();
+            String msgId = getMessageId(message);
+            if (msgId == null) {
+                log.error("消息ID为空，丢弃消息");
+                reject(channel, deliveryTag, false, rejected);
+                continue;
+            }
+            IdempotencyStore.Result result = acquired.get(msgId);
+            if (result == IdempotencyStore.Result.IN_PROGRESS) {
+                // 占用者可能已宕机，不能直接确认：转入延迟队列后随整批确认，转发未确认时重新入队
+                if (ruleUpdateDelayer.delay(msgId, message)) {
+                    log.warn("消息正在其他消费者处理，已转入延迟队列: {}", msgId);
+                    skipped++;
+                } else {
+                    reject(channel, deliveryTag, true, rejected);
+                }
+                continue;
+            }
+            // 已处理或本批重复投递的消息直接确认
+            if (result != IdempotencyStore.Result.ACQUIRED || !seen.add(msgId)) {
+                skipped++;
+                continue;
+            }
+            RuleUpdateEvent event = parseMessage(message);
+            if (event == null || event.getRuleVersion() == null || event.getRuleVersion().trim().isEmpty()) {
+                log.error("消息参数错误，丢弃消息: {}", msgId);
+                idempotencyStore.release(msgId);
+                messageLogService.recordFailure(msgId, "消息格式错误或规则版本为空");
+                reject(channel, deliveryTag, false, rejected);
+                continue;
+            }
+            String ruleKey = event.getRuleKey() != null ? event.getRuleKey() : "default";
+            Pending candidate = new Pending(msgId, message, event, ruleKey);
+            Pending current = latest.get(ruleKey);
+            if (current == null) {
+                latest.put(ruleKey, candidate);
+            } else if (isNewer(event.getRuleVersion(), current.event.getRuleVersion())) {
+                candidate.superseded.addAll(current.superseded);
+                candidate.superseded.add(current.msgId);
+                latest.put(ruleKey, candidate);
+            } else {
+                current.superseded.add(msgId);
+            }
+        }
+
+        // 各规则键的最新版本并行编译
+        Map<Pending, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+        for (Pending pending : latest.values()) {
+            futures.put(pending, CompletableFuture.runAsync(() -> apply(pending), compileExecutor));
+        }
+        List<String> succeeded = new ArrayList<>();
+        int superseded = 0;
+        for (Map.Entry<Pending, CompletableFuture<Void>> entry : futures.entrySet()) {
+            Pending pending = entry.getKey();
+            superseded += pending.superseded.size();
+            try {
+                entry.getValue().join();
+                succeeded.add(pending.msgId);
+                succeeded.addAll(pending.superseded);
+            } catch (Exception e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                boolean redelivered = Boolean.TRUE.equals(pending.message.getMessageProperties().getRedelivered());
+                log.error("规则更新处理失败：消息ID={}, 规则键={}, 版本={}, {}", pending.msgId, pending.ruleKey,
+                        pending.event.getRuleVersion(), redelivered ? "进入死信队列" : "重新入队", cause);
+                messageLogService.recordRetry(pending.msgId, cause.getMessage());
+                idempotencyStore.release(pending.msgId);
+                pending.superseded.forEach(idempotencyStore::release);
+                // 首次失败重新入队，再次失败进入死信队列；被覆盖的旧版本随整批确认
+                reject(channel, pending.message.getMessageProperties().getDeliveryTag(), !redelivered, rejected);
+            }
+        }
+
+        idempotencyStore.markDoneAll(succeeded);
+        ackRemaining(channel, messages, rejected);
+        log.info("规则更新批处理完成：消息数={}, 已处理跳过={}, 被覆盖={}, 加载={}, 失败={}, 耗时={}ms",
+                messages.size(), skipped, superseded, latest.size(), rejected.size(),
+                System.currentTimeMillis() - start);
+    }
+
+    private void apply(Pending pending) {
+        RuleUpdateEvent event = pending.event;
+        String ruleContent = event.getRuleContent() != null
+                ? event.getRuleContent()
+                : ruleEngineService.getRuleContent(event.getRuleVersion(), pending.ruleKey);
+        if (ruleContent == null) {
+            throw new RuleException("未找到规则内容，版本: " + event.getRuleVersion() + " 规则key: " + pending.ruleKey);
+        }
+        ruleEngineService.loadRule(ruleContent, event.getRuleVersion(), pending.ruleKey);
+        propagationTracker.recordApplied(pending.ruleKey, event.getRuleVersion(), event.getPublishedAt());
+    }
+
+    /**
+     * 版本号都是数字时按数值比较，否则以后到的消息为准
+     */
+    private static boolean isNewer(String version, String currentVersion) {
+        try {
+            return Long.parseLong(version.trim()) >= Long.parseLong(currentVersion.trim());
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    /**
+     * 整批消息ID一次占用
+     */
+    private Map<String, IdempotencyStore.Result> acquire(List<Message> messages) {
+        Set<String> msgIds = new LinkedHashSet<>();
+        for (Message message : messages) {
+            String msgId = getMessageId(message);
+            if (msgId != null) {
+                msgIds.add(msgId);
+            }
+        }
+        return idempotencyStore.tryAcquireAll(msgIds);
+    }
+
+    private static void reject(Channel channel, long deliveryTag, boolean requeue, Set<Long> rejected) throws IOException {
+        channel.basicNack(deliveryTag, false, requeue);
+        rejected.add(deliveryTag);
+    }
+
+    /**
+     * 拒绝的消息已单独处理，其余消息以未拒绝的最大投递标签一次批量确认
+     */
+    private static void ackRemaining(Channel channel, List<Message> messages, Set<Long> rejected) throws IOException {
+        long maxTag = -1;
+        for (Message message : messages) {
+            long deliveryTag = message.getMessageProperties().getDeliveryTag();
+            if (!rejected.contains(deliveryTag)) {
+                maxTag = Math.max(maxTag, deliveryTag);
+            }
+        }
+        if (maxTag >= 0) {
+            channel.basicAck(maxTag, true);
+        }
+    }
+
+    private static String getMessageId(Message message) {
+        String msgId = message.getMessageProperties().getCorrelationId();
+        if (msgId == null) {
+            msgId = (String) message.getMessageProperties().getHeaders().get("msgId");
+        }
+        return msgId;
+    }
+
+    private RuleUpdateEvent parseMessage(Message message) {
+        try {
+            return objectMapper.readValue(new String(message.getBody(), StandardCharsets.UTF_8), RuleUpdateEvent.class);
+        } catch (Exception e) {
+            log.error("消息解析失败: {}", new String(message.getBody(), StandardCharsets.UTF_8), e);
+            return null;
+        }
+    }
+
+    private static final class Pending {
+        private final String msgId;
+        private final Message message;
+        private final RuleUpdateEvent event;
+        private final String ruleKey;
+        private final List<String> superseded = new ArrayList<>(); // 被本消息覆盖的旧版本消息ID
+
+        private Pending(String msgId, Message message, RuleUpdateEvent event, String ruleKey) {
+            this.msgId = msgId;
+            this.message = message;
+            this.event = event;
+            this.ruleKey = ruleKey;
+        }
+    }
+}
@@ -3,30 +3,32 @@ package com.wb.rules.mq;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.wb.rules.common.exceptions.RuleException;
 import com.wb.rules.event.RuleUpdateEvent;
+import com.wb.rules.service.IdempotencyStore;
 import com.wb.rules.service.MessageLogService;
 import com.wb.rules.service.RuleEngineService;
+import com.wb.rules.service.RulePropagationTracker;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.AmqpRejectAndDontRequeueException;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.nio.charset.StandardCharsets;
-import java.util.concurrent.TimeUnit;
 
 @Component
 @Slf4j
 @RequiredArgsConstructor
+@ConditionalOnProperty(name = "app.mq.consumer.batch.enabled", havingValue = "false", matchIfMissing = true)
 public class RuleUpdateConsumer {
 
     private final RuleEngineService ruleEngineService;
     private final MessageLogService messageLogService;
-    private final StringRedisTemplate redisTemplate;
+    private final IdempotencyStore idempotencyStore;
     private final ObjectMapper objectMapper;
-
-    private static final String MESSAGE_CACHE_KEY = "rule_update_processed";
+    private final RulePropagationTracker propagationTracker;
+    private final RuleUpdateDelayer ruleUpdateDelayer;
 
     /**
      * 规则更新消息消费者
@@ -40,13 +42,23 @@ public class RuleUpdateConsumer {
             throw new RuleException("消息ID不能为空");
         }
 
-        try {
-            // 幂等性检查 - 在业务开始前检查
-            if (isMessageProcessed(msgId)) {
-                log.info("消息已处理，直接跳过: {}", msgId);
-                return;
+        // 幂等性检查 - 在业务开始前原子占用
+        IdempotencyStore.Result acquired = idempotencyStore.tryAcquire(msgId);
+        if (acquired == IdempotencyStore.Result.DUPLICATE) {
+            log.info("消息已处理，直接跳过: {}", msgId);
+            return;
+        }
+        if (acquired == IdempotencyStore.Result.IN_PROGRESS) {
+            // 重投多发生在持有消息的消费者宕机时，占用者可能已不存在，不能直接确认：
+            // 转入延迟队列，过期后回到本队列再判断，转发未确认时交给重试拦截器
+            if (!ruleUpdateDelayer.delay(msgId, message)) {
+                throw new RuleException("消息正在其他消费者处理，转入延迟队列失败");
             }
+            log.warn("消息正在其他消费者处理，已转入延迟队列: {}", msgId);
+            return;
+        }
 
+        try {
             // 解析消息
             RuleUpdateEvent ruleUpdateEvent = parseMessage(message);
             validateRuleUpdateEvent(ruleUpdateEvent);
@@ -64,18 +76,21 @@ public class RuleUpdateConsumer {
 
             // 标记处理成功（在事务中）
             // todo messageLogService.markSuccess(msgId);
-            markMessageAsProcessed(msgId); // Redis幂等性标记
+            idempotencyStore.markDone(msgId); // Redis幂等性标记
+            propagationTracker.recordApplied(ruleKey, ruleVersion, ruleUpdateEvent.getPublishedAt());
 
             log.info("规则更新消息处理成功: {}", msgId);
 
         } catch (IllegalArgumentException e) {
             // 参数错误，不重试，直接记录失败
             log.error("消息参数错误，丢弃消息: {}", msgId, e);
+            idempotencyStore.release(msgId);
             messageLogService.recordFailure(msgId, e.getMessage());
             throw new AmqpRejectAndDontRequeueException("消息参数错误，不重试"); // 直接进入死信队列
         } catch (Exception e) {
             // 业务异常，进行重试
             log.error("处理规则更新消息失败，将进行重试: {}", msgId, e);
+            idempotencyStore.release(msgId);
             messageLogService.recordRetry(msgId, e.getMessage());
             throw new RuleException("规则更新处理失败，需要重试");
         }
@@ -93,20 +108,6 @@ public class RuleUpdateConsumer {
         return msgId;
     }
 
-    /**
-     * 幂等性检查 - 优先检查Redis，再检查数据库
-     */
-    private boolean isMessageProcessed(String msgId) {
-        // 1. 检查Redis缓存
-        Boolean exists = redisTemplate.opsForHash().hasKey(MESSAGE_CACHE_KEY, msgId);
-        if (Boolean.TRUE.equals(exists)) {
-            return true;
-        }
-
-        // 2. 检查数据库（防止Redis缓存失效）
-        return messageLogService.isMessageProcessed(msgId);
-    }
-
     /**
      * 解析消息
      */
@@ -154,17 +155,4 @@ public class RuleUpdateConsumer {
             throw e; // 重新抛出，让重试机制处理
         }
     }
-
-    /**
-     * 标记消息已处理（Redis幂等性）
-     */
-    private void markMessageAsProcessed(String msgId) {
-        try {
-            redisTemplate.opsForHash().put(MESSAGE_CACHE_KEY, msgId, "processed");
-            redisTemplate.expire(MESSAGE_CACHE_KEY, 24, TimeUnit.HOURS);
-        } catch (Exception e) {
-            log.warn("记录Redis幂等性失败: {}", msgId, e);
-            // Redis操作失败不影响主流程，因为数据库事务已提交
-        }
-    }
 }
\ No newline at end of file
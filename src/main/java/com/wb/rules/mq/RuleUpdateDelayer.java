@@ -0,0 +1,52 @@
+package com.wb.rules.mq;
+
+import com.wb.rules.config.RabbitConfig;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 正被其他消费者处理的规则更新消息（幂等占用未过期）不能确认也不能丢弃：占用者可能已宕机，
+ * 而消息不一定有消息记录可供重试任务重发（发件箱发布的消息就没有）。
+ * 这里把原消息转发到延迟队列，过期后经规则交换机回到更新队列，直到占用完成或过期后被重新占用
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class RuleUpdateDelayer {
+
+    private final RabbitTemplate rabbitTemplate;
+
+    @Value("${app.mq.outbox.confirm-timeout:5000}")
+    private long confirmTimeout;
+
+    /**
+     * 转发到延迟队列并等待broker确认，确认成功后调用方才能确认原消息
+     *
+     * @return 是否已被broker确认
+     */
+    public boolean delay(String msgId, Message message) {
+        CorrelationData correlationData = new CorrelationData(msgId + ":" + UUID.randomUUID());
+        try {
+            rabbitTemplate.send("", RabbitConfig.RULE_UPDATE_DELAY_QUEUE, message, correlationData);
+            CorrelationData.Confirm confirm = correlationData.getFuture().get(confirmTimeout, TimeUnit.MILLISECONDS);
+            if (!confirm.isAck()) {
+                log.warn("延迟消息被broker拒绝: {}, 原因: {}", msgId, confirm.getReason());
+            }
+            return confirm.isAck();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            log.warn("转发延迟消息失败: {}", msgId, e);
+            return false;
+        }
+    }
+}
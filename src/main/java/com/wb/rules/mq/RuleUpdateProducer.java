@@ -3,6 +3,7 @@ package com.wb.rules.mq;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.wb.rules.common.exceptions.RuleException;
+import com.wb.rules.config.RuleBroadcastConfig;
 import com.wb.rules.entity.MessageLog;
 import com.wb.rules.event.RuleUpdateEvent;
 import com.wb.rules.service.MessageLogService;
@@ -10,8 +11,8 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.rabbit.connection.CorrelationData;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.UUID;
@@ -25,11 +26,17 @@ public class RuleUpdateProducer {
     private final RabbitTemplate rabbitTemplate;
     private final MessageLogService messageLogService;
     private final ObjectMapper objectMapper;
+    private final RulePublishPipeline publishPipeline;
+
+    // 广播模式发往fanout交换机，每个节点都会收到
+    @Value("${app.mq.broadcast.enabled:false}")
+    private boolean broadcastEnabled;
 
     /**
      * 发送规则更新消息 - 同步方式
+     * 消息记录先在独立事务中提交再发送：在调用方事务内插入时，broker的确认可能早于提交到达，
+     * 状态更新不到记录，消息又被重试任务重发
      */
-    @Transactional
     public String sendRuleUpdateMessage(RuleUpdateEvent ruleUpdateEvent) {
         String msgId = UUID.randomUUID().toString();
 
@@ -39,12 +46,15 @@ public class RuleUpdateProducer {
 
             // 保存消息记录（状态为待发送）
             MessageLog messageLog = createMessageLog(msgId, ruleUpdateEvent, 0); // 0-待发送
-            messageLogService.insert(messageLog);
+            messageLogService.insertCommitted(messageLog);
 
-            // 发送消息
+            // 发送消息，确认结果由发布流水线按批写入消息记录
+            ruleUpdateEvent.setPublishedAt(System.currentTimeMillis());
+            CorrelationData correlationData = new CorrelationData(msgId);
+            publishPipeline.track(correlationData);
             rabbitTemplate.convertAndSend(
-                    "rule.exchange",
-                    "rule.update",
+                    exchange(),
+                    routingKey(),
                     ruleUpdateEvent,
                     message -> {
                         // 设置消息ID，用于幂等性检查
@@ -52,7 +62,7 @@ public class RuleUpdateProducer {
                         message.getMessageProperties().setMessageId(msgId);
                         return message;
                     },
-                    new CorrelationData(msgId)
+                    correlationData
             );
 
             // 4. 更新消息状态为已发送（这里依赖confirm回调来更新状态）
@@ -68,9 +78,14 @@ public class RuleUpdateProducer {
 
     /**
      * 发送规则更新消息 - 异步方式
+     * 交给发布流水线批量写消息记录并连续发送，不占用调用线程；返回的future在broker确认后完成
      */
     public CompletableFuture<String> sendRuleUpdateMessageAsync(RuleUpdateEvent ruleUpdateEvent) {
-        return CompletableFuture.supplyAsync(() -> sendRuleUpdateMessage(ruleUpdateEvent));
+        validateRuleUpdateEvent(ruleUpdateEvent);
+        String msgId = UUID.randomUUID().toString();
+        ruleUpdateEvent.setPublishedAt(System.currentTimeMillis());
+        return publishPipeline.submit(msgId, ruleUpdateEvent, createMessageLog(msgId, ruleUpdateEvent, 0),
+                exchange(), routingKey());
     }
 
     /**
@@ -95,7 +110,8 @@ public class RuleUpdateProducer {
                 }
 
                 // 发送消息
-                rabbitTemplate.convertAndSend("rule.exchange", "rule.update", ruleUpdateEvent,
+                ruleUpdateEvent.setPublishedAt(System.currentTimeMillis());
+                rabbitTemplate.convertAndSend(exchange(), routingKey(), ruleUpdateEvent,
                         new CorrelationData(msgId));
 
                 log.info("规则更新消息发送成功，消息ID: {}", msgId);
@@ -124,6 +140,14 @@ public class RuleUpdateProducer {
         return msgId;
     }
 
+    public String exchange() {
+        return broadcastEnabled ? RuleBroadcastConfig.BROADCAST_EXCHANGE : "rule.exchange";
+    }
+
+    public String routingKey() {
+        return broadcastEnabled ? "" : "rule.update";
+    }
+
     /**
      * 验证消息参数
      */
@@ -152,6 +176,7 @@ public class RuleUpdateProducer {
                 .createTime(LocalDateTime.now())
                 .updateTime(LocalDateTime.now())
                 .tryTime(LocalDateTime.now().plusMinutes(1)) // 正确的1分钟后重试
+                .messageContent(serializeMessageContent(event))
                 .build();
     }
 
@@ -8,6 +8,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -21,8 +22,21 @@ public interface MessageLogRepository extends JpaRepository<MessageLog, String>
     @Query("UPDATE MessageLog SET count = count + 1, tryTime = :tryTime, updateTime = CURRENT_TIMESTAMP WHERE msgId = :msgId")
     int updateCount(@Param("msgId") String msgId, @Param("tryTime") LocalDateTime tryTime);
     
-    @Query("SELECT m FROM MessageLog m WHERE m.status = 0 AND m.count < 3 AND m.tryTime <= CURRENT_TIMESTAMP")
-    List<MessageLog> findNeedRetryMessages();
+    @Modifying
+    @Query("UPDATE MessageLog SET status = :status, updateTime = CURRENT_TIMESTAMP WHERE msgId IN :msgIds")
+    int updateStatusBatch(@Param("msgIds") Collection<String> msgIds, @Param("status") Integer status);
+
+    @Modifying
+    @Query("UPDATE MessageLog SET tryTime = :tryTime, errorMsg = :errorMsg, updateTime = CURRENT_TIMESTAMP WHERE msgId IN :msgIds AND status = 0")
+    int updateRetryBatch(@Param("msgIds") Collection<String> msgIds, @Param("tryTime") LocalDateTime tryTime,
+                         @Param("errorMsg") String errorMsg);
+
+    /**
+     * 锁定一页到期的待重发消息，已被其他实例锁定的行直接跳过，走(status, try_time)索引
+     */
+    @Query(value = "SELECT * FROM mail_send_log WHERE status = 0 AND try_time <= :now "
+            + "ORDER BY try_time LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<MessageLog> lockRetryable(@Param("now") LocalDateTime now, @Param("limit") int limit);
     
     @Query("SELECT m FROM MessageLog m WHERE m.msgId = :msgId")
     MessageLog findByMsgId(@Param("msgId") String msgId);
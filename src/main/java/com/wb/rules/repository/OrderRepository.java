@@ -0,0 +1,19 @@
+package com.wb.rules.repository;
+
+import com.wb.rules.entity.Order;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface OrderRepository extends JpaRepository<Order, Long> {
+
+    /**
+     * 按主键游标分页，每页查询代价与页码无关
+     */
+    List<Order> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+
+    long countByIdGreaterThan(Long id);
+}
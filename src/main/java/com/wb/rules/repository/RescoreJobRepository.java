@@ -0,0 +1,14 @@
+package com.wb.rules.repository;
+
+import com.wb.rules.common.enums.RescoreJobStatus;
+import com.wb.rules.entity.RescoreJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface RescoreJobRepository extends JpaRepository<RescoreJob, Long> {
+
+    List<RescoreJob> findByStatus(RescoreJobStatus status);
+}
@@ -0,0 +1,41 @@
+package com.wb.rules.repository;
+
+import com.wb.rules.entity.RuleOutbox;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface RuleOutboxRepository extends JpaRepository<RuleOutbox, Long> {
+
+    /**
+     * 按ID顺序读取已到发送时间的待发布记录，走(status, id)索引，已发布的记录不会被扫描
+     */
+    @Query("SELECT o FROM RuleOutbox o WHERE o.status = :status "
+            + "AND (o.nextAttemptTime IS NULL OR o.nextAttemptTime <= :now) ORDER BY o.id")
+    List<RuleOutbox> findDue(@Param("status") Integer status, @Param("now") LocalDateTime now, Pageable pageable);
+
+    @Modifying
+    @Query("UPDATE RuleOutbox SET status = :status, sentTime = :sentTime WHERE id IN :ids")
+    int updateStatusBatch(@Param("ids") Collection<Long> ids, @Param("status") Integer status,
+                          @Param("sentTime") LocalDateTime sentTime);
+
+    @Modifying
+    @Query("UPDATE RuleOutbox SET attempts = attempts + 1 WHERE id IN :ids")
+    int incrementAttempts(@Param("ids") Collection<Long> ids);
+
+    @Modifying
+    @Query("UPDATE RuleOutbox SET nextAttemptTime = :nextAttemptTime WHERE id = :id")
+    int updateNextAttemptTime(@Param("id") Long id, @Param("nextAttemptTime") LocalDateTime nextAttemptTime);
+
+    @Modifying
+    @Query(value = "DELETE FROM rule_outbox WHERE status = 1 AND create_time < :before LIMIT :limit", nativeQuery = true)
+    int deleteSentBefore(@Param("before") LocalDateTime before, @Param("limit") int limit);
+}
@@ -0,0 +1,16 @@
+package com.wb.rules.repository;
+
+import com.wb.rules.entity.RuleTemplateParam;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface RuleTemplateParamRepository extends JpaRepository<RuleTemplateParam, Long> {
+
+    List<RuleTemplateParam> findByRuleKeyOrderByIdAsc(String ruleKey);
+
+    Optional<RuleTemplateParam> findByRuleKeyAndRowKey(String ruleKey, String rowKey);
+}
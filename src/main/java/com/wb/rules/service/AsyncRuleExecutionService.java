@@ -0,0 +1,77 @@
+package com.wb.rules.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.wb.rules.config.RuleAsyncProperties;
+import com.wb.rules.dto.BulkheadStats;
+import com.wb.rules.entity.Order;
+import com.wb.rules.service.support.RuleBulkhead;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 异步规则执行：在独立线程池中执行规则，不占用Tomcat请求线程。
+ * 每个规则键有独立的并发和排队上限，某个规则键过载时只拒绝该规则键的请求
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class AsyncRuleExecutionService {
+
+    private final DroolsDynamicService droolsDynamicService;
+    private final RuleAsyncProperties properties;
+
+    // 规则键来自请求参数，舱壁按空闲时间和数量回收，不存在的规则键不会无限累积；
+    // 回收时仍有任务的舱壁由这些任务执行完，之后的请求使用新建的舱壁
+    private Cache<String, RuleBulkhead> bulkheads;
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        executor = new ThreadPoolExecutor(properties.getThreads(), properties.getThreads(), 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(properties.getQueueCapacity()), new CustomizableThreadFactory("rule-exec-"));
+        bulkheads = Caffeine.newBuilder()
+                .maximumSize(properties.getBulkheadMaxKeys())
+                .expireAfterAccess(properties.getBulkheadIdle())
+                .build();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdown();
+    }
+
+    /**
+     * 异步执行规则，超出规则键排队上限时返回的future以TOO_MANY_REQUESTS失败
+     */
+    public CompletableFuture<Order> executeRule(String ruleKey, Order order) {
+        return bulkhead(ruleKey).submit(() -> droolsDynamicService.executeRule(ruleKey, order));
+    }
+
+    /**
+     * 获取各规则键的并发隔离状态
+     */
+    public Map<String, BulkheadStats> getBulkheadStats() {
+        Map<String, BulkheadStats> stats = new TreeMap<>();
+        bulkheads.asMap().forEach((ruleKey, bulkhead) -> stats.put(ruleKey, bulkhead.stats()));
+        return stats;
+    }
+
+    private RuleBulkhead bulkhead(String ruleKey) {
+        return bulkheads.get(ruleKey, key -> {
+            RuleAsyncProperties.Limit limit = properties.limitOf(key);
+            return new RuleBulkhead(key, limit.getMaxConcurrent(), limit.getMaxQueue(), executor);
+        });
+    }
+}
@@ -1,21 +1,65 @@
 package com.wb.rules.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.wb.rules.common.enums.RuleResultCode;
+import com.wb.rules.common.exceptions.RuleException;
+import com.wb.rules.dto.BatchExecutionResult;
+import com.wb.rules.dto.BatchItemResult;
+import com.wb.rules.dto.RuleCacheStats;
+import com.wb.rules.dto.SessionPoolStats;
 import com.wb.rules.entity.DroolsRules;
 import com.wb.rules.entity.Order;
+import com.wb.rules.event.RuleReloadedEvent;
 import com.wb.rules.repository.DroolsRulesRepository;
+import com.wb.rules.service.support.KieSessionPool;
+import com.wb.rules.service.support.LoadedRule;
+import com.wb.rules.service.support.RuleTraceListener;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.kie.api.KieBase;
-import org.kie.api.builder.Message;
-import org.kie.api.builder.Results;
-import org.kie.api.io.ResourceType;
+import org.kie.api.event.rule.AgendaEventListener;
 import org.kie.api.runtime.KieSession;
-import org.kie.internal.utils.KieHelper;
-import org.springframework.beans.factory.annotation.Autowired;
+import org.kie.api.runtime.rule.FactHandle;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 @Service
 @Slf4j
@@ -23,70 +67,414 @@ import java.util.concurrent.ConcurrentHashMap;
 public class DroolsDynamicService {
 
     private final DroolsRulesRepository rulesRepository;
-    //规则缓存
-    private final ConcurrentHashMap<String, KieBase> rulesCache = new ConcurrentHashMap<>();
+    private final RuleCompileCache ruleCompileCache;
+    private final MeterRegistry meterRegistry;
+    private final RuleMetrics ruleMetrics;
+    private final RuleShadowService ruleShadowService;
+    private final ObjectMapper objectMapper;
+    private final ApplicationEventPublisher eventPublisher;
+    //规则缓存，按权重和空闲时间淘汰
+    private Cache<String, LoadedRule> rulesCache;
+    //每个规则键最近一次提交的重载任务，同一规则键的重载和淘汰后的解除绑定串行执行
+    private final ConcurrentHashMap<String, CompletableFuture<Boolean>> pendingReloads = new ConcurrentHashMap<>();
+    private ThreadPoolExecutor reloadExecutor;
+
+    @Value("${app.rules.batch.chunk-size:200}")
+    private int batchChunkSize;
+
+    @Value("${app.rules.batch.max-size:10000}")
+    private int batchMaxSize;
+
+    // 流式执行时最多积累多少条结果强制刷出，输入暂时没有数据时也会立即刷出
+    @Value("${app.rules.stream.flush-size:100}")
+    private int streamFlushSize;
+
+    @Value("${app.rules.pool.max-idle:16}")
+    private int poolMaxIdle;
+
+    @Value("${app.rules.pool.min-idle:2}")
+    private int poolMinIdle;
+
+    @Value("${app.rules.reload.threads:2}")
+    private int reloadThreads;
+
+    @Value("${app.rules.reload.queue-capacity:1000}")
+    private int reloadQueueCapacity;
+
+    @Value("${app.rules.cache.max-weight:100000}")
+    private long cacheMaxWeight;
+
+    // rules：按KieBase中的规则数计权重；entries：每个规则键计1
+    @Value("${app.rules.cache.weigher:rules}")
+    private String cacheWeigher;
+
+    @Value("${app.rules.cache.expire-after-access:PT6H}")
+    private Duration cacheExpireAfterAccess;
+
+    @PostConstruct
+    public void init() {
+        boolean weighByRules = "rules".equalsIgnoreCase(cacheWeigher);
+        rulesCache = Caffeine.newBuilder()
+                .maximumWeight(cacheMaxWeight)
+                .weigher((String ruleKey, LoadedRule loadedRule) -> weighByRules ? Math.max(1, loadedRule.getRuleCount()) : 1)
+                .expireAfterAccess(cacheExpireAfterAccess)
+                // 淘汰在缓存原子操作内同步回调，但重载的编译在缓存之外进行，此时编译缓存中的绑定可能已是新版本：
+                // 解除绑定排入该规则键的重载队列，等进行中的重载结束后再判断
+                .evictionListener((String ruleKey, LoadedRule loadedRule, RemovalCause cause) -> {
+                    log.info("规则缓存淘汰：规则键={}, 原因={}", ruleKey, cause);
+                    if (loadedRule != null) {
+                        loadedRule.retire();
+                    }
+                    enqueue(ruleKey, this::releaseIfUnloaded, ForkJoinPool.commonPool());
+                })
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, rulesCache, "rules.kiebase");
+
+        reloadExecutor = new ThreadPoolExecutor(reloadThreads, reloadThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(reloadQueueCapacity), new CustomizableThreadFactory("rule-reload-"));
+    }
+
+    @PreDestroy
+    public void destroy() {
+        reloadExecutor.shutdownNow();
+    }
 
     //根据规则键执行规则
     public Order executeRule(String ruleKey, Order order){
-        KieBase kieBase = getOrLoadKieBase(ruleKey);
-        KieSession kieSession = kieBase.newKieSession();
+        return executeRule(ruleKey, order, null);
+    }
 
-        try {
-            kieSession.insert(order);
-            int firedRules = kieSession.fireAllRules();
-            log.info("规则执行完成：规则键={}, 触发数={}", ruleKey, firedRules);
-        }finally {
-            kieSession.dispose();
+    /**
+     * 执行规则，traceListener不为空时记录本次触发的规则和耗时
+     */
+    public Order executeRule(String ruleKey, Order order, RuleTraceListener traceListener){
+        LoadedRule loadedRule = getOrLoadRule(ruleKey);
+        // 影子执行需要线上执行前的订单副本
+        Order shadowCopy = ruleShadowService.sample(ruleKey, order);
+        AgendaEventListener metricsListener = ruleMetrics.listener(ruleKey);
+        int firedRules;
+        if (metricsListener == null && traceListener == null) {
+            // 未开启追踪和指标时走无监听器的重载，不分配lambda和监听器数组
+            firedRules = loadedRule.execute(DroolsDynamicService::fire, order);
+        } else {
+            firedRules = loadedRule.execute(kieSession -> {
+                if (traceListener != null) {
+                    traceListener.begin();
+                }
+                int fired = fire(kieSession, order);
+                if (traceListener != null) {
+                    traceListener.end();
+                }
+                return fired;
+            }, metricsListener, traceListener);
+        }
+        log.debug("规则执行完成：规则键={}, 触发数={}", ruleKey, firedRules);
+        if (shadowCopy != null) {
+            ruleShadowService.submit(ruleKey, shadowCopy, order);
         }
         return order;
     }
 
-    //获取或者加载KieBase
-    private KieBase getOrLoadKieBase(String ruleKey) {
-        return rulesCache.computeIfAbsent(ruleKey, key ->{
-            DroolsRules rules =rulesRepository.findByRuleKeyAndStatusTrue(key).orElseThrow(() -> new RuntimeException("规则不存在或已禁用" + key));
-            return compileRule(rules.getRuleContent());
-        });
+    private static int fire(KieSession kieSession, Order order) {
+        kieSession.insert(order);
+        return kieSession.fireAllRules();
+    }
+
+    /**
+     * 批量执行规则：按块复用KieSession，每个订单单独触发并隔离异常，结果与入参顺序一致
+     */
+    public BatchExecutionResult executeBatch(String ruleKey, List<Order> orders) {
+        if (orders == null || orders.isEmpty()) {
+            return BatchExecutionResult.of(new ArrayList<>());
+        }
+        if (orders.size() > batchMaxSize) {
+            throw new RuleException(RuleResultCode.PARAM_ERROR, "批量执行数量超过上限: " + batchMaxSize);
+        }
+
+        LoadedRule loadedRule = getOrLoadRule(ruleKey);
+        List<BatchItemResult> results = new ArrayList<>(orders.size());
+        int chunkSize = Math.max(1, batchChunkSize);
+        loadedRule.enter();
+        try {
+            for (int from = 0; from < orders.size(); from += chunkSize) {
+                executeChunk(loadedRule.getSessionPool(), ruleKey,
+                        orders.subList(from, Math.min(from + chunkSize, orders.size())), from, results);
+            }
+        } finally {
+            loadedRule.exit();
+        }
+
+        BatchExecutionResult batchResult = BatchExecutionResult.of(results);
+        log.info("批量规则执行完成：规则键={}, 总数={}, 失败数={}", ruleKey, batchResult.getTotal(), batchResult.getFailureCount());
+        return batchResult;
+    }
+
+    /**
+     * 流式执行规则：逐行读取NDJSON订单，每行输出一条BatchItemResult，内存占用与输入总量无关。
+     * 单行解析或执行失败只输出该行的错误结果，不中断整个流。
+     * 先读满一个分块（输入端暂时没有数据时提前结束分块）再获取规则和会话执行，等待客户端输入和输出时不占用会话；
+     * 每个分块重新获取规则，流执行期间规则重载后后续分块使用新版本
+     */
+    public long executeStream(String ruleKey, InputStream input, OutputStream output) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        int chunkSize = Math.max(1, batchChunkSize);
+        List<String> lines = new ArrayList<>(chunkSize);
+        long index = 0;
+        long failures = 0;
+        int unflushed = 0;
+        while (readChunk(reader, lines, chunkSize)) {
+            List<Order> orders = new ArrayList<>(lines.size());
+            Map<Integer, String> parseErrors = new HashMap<>();
+            for (int i = 0; i < lines.size(); i++) {
+                try {
+                    orders.add(objectMapper.readValue(lines.get(i), Order.class));
+                } catch (JsonProcessingException e) {
+                    orders.add(null);
+                    parseErrors.put(i, "订单解析失败: " + e.getOriginalMessage());
+                }
+            }
+
+            List<BatchItemResult> results = new ArrayList<>(orders.size());
+            LoadedRule loadedRule = getOrLoadRule(ruleKey);
+            loadedRule.enter();
+            try {
+                executeChunk(loadedRule.getSessionPool(), ruleKey, orders, index, results);
+            } finally {
+                loadedRule.exit();
+            }
+            for (Map.Entry<Integer, String> parseError : parseErrors.entrySet()) {
+                results.set(parseError.getKey(), BatchItemResult.error(index + parseError.getKey(), parseError.getValue()));
+            }
+
+            for (BatchItemResult result : results) {
+                if (!result.isSuccess()) {
+                    failures++;
+                }
+                writer.write(objectMapper.writeValueAsString(result));
+                writer.write('\n');
+            }
+            index += lines.size();
+            unflushed += lines.size();
+            lines.clear();
+            // 输入端暂时没有数据时先把已有结果刷给客户端
+            if (unflushed >= streamFlushSize || !reader.ready()) {
+                writer.flush();
+                unflushed = 0;
+            }
+        }
+        writer.flush();
+        log.info("流式规则执行完成：规则键={}, 总数={}, 失败数={}", ruleKey, index, failures);
+        return index;
+    }
+
+    /**
+     * 读取一个分块的非空行，已读到数据且输入端暂时没有更多数据时提前返回，输入结束且没有数据时返回false
+     */
+    private static boolean readChunk(BufferedReader reader, List<String> lines, int chunkSize) throws IOException {
+        while (lines.size() < chunkSize && (lines.isEmpty() || reader.ready())) {
+            String line = reader.readLine();
+            if (line == null) {
+                break;
+            }
+            if (!line.isBlank()) {
+                lines.add(line);
+            }
+        }
+        return !lines.isEmpty();
     }
 
     /**
-     * 编译规则内容
+     * 执行一个分块，块内共用一个KieSession，结果下标从baseIndex开始
      */
-    private KieBase compileRule(String ruleContent) {
+    private void executeChunk(KieSessionPool sessionPool, String ruleKey, List<Order> orders, long baseIndex,
+                              List<BatchItemResult> results) {
+        KieSession kieSession = sessionPool.borrow();
+        AgendaEventListener listener = attachMetrics(kieSession, ruleKey);
         try {
-            KieHelper kieHelper = new KieHelper();
-            kieHelper.addContent(ruleContent, ResourceType.DRL);
-
-            Results results = kieHelper.verify();
-            if (results.hasMessages(Message.Level.ERROR)) {
-                String errorMsg = results.getMessages().toString();
-                log.error("规则编译错误：{}", errorMsg);
-                throw new RuntimeException("规则语法错误: " + errorMsg);
+            for (int i = 0; i < orders.size(); i++) {
+                long index = baseIndex + i;
+                Order order = orders.get(i);
+                if (order == null) {
+                    results.add(BatchItemResult.error(index, "订单不能为空"));
+                    continue;
+                }
+                try {
+                    fireIsolated(kieSession, order);
+                    results.add(BatchItemResult.success(index, order));
+                } catch (Exception e) {
+                    log.warn("批量规则执行单条失败：规则键={}, 下标={}, {}", ruleKey, index, e.getMessage());
+                    results.add(BatchItemResult.error(index, "规则执行失败: " + e.getMessage()));
+                    // 异常后会话状态不可信，换一个新会话继续
+                    sessionPool.invalidate(kieSession);
+                    kieSession = sessionPool.borrow();
+                    listener = attachMetrics(kieSession, ruleKey);
+                }
             }
-            return kieHelper.build();
-        } catch (Exception e) {
-            log.error("规则编译失败",e);
-            throw new RuntimeException("规则编译失败：" + e.getMessage());
+        } finally {
+            detachMetrics(kieSession, listener);
+            sessionPool.release(kieSession);
         }
     }
 
+    /**
+     * 开启规则指标时为本次执行挂上监听器，会话归还前必须摘除
+     */
+    private AgendaEventListener attachMetrics(KieSession kieSession, String ruleKey) {
+        AgendaEventListener listener = ruleMetrics.listener(ruleKey);
+        if (listener != null) {
+            kieSession.addEventListener(listener);
+        }
+        return listener;
+    }
+
+    private static void detachMetrics(KieSession kieSession, AgendaEventListener listener) {
+        if (listener != null) {
+            kieSession.removeEventListener(listener);
+        }
+    }
+
+    /**
+     * 插入单个事实并触发，结束后清空工作内存，保证同一会话内的订单互不影响
+     */
+    private int fireIsolated(KieSession kieSession, Object fact) {
+        kieSession.insert(fact);
+        try {
+            return kieSession.fireAllRules();
+        } finally {
+            for (FactHandle factHandle : new ArrayList<>(kieSession.getFactHandles())) {
+                kieSession.delete(factHandle);
+            }
+        }
+    }
+
+    //获取或者加载规则
+    private LoadedRule getOrLoadRule(String ruleKey) {
+        return rulesCache.get(ruleKey, this::loadRule);
+    }
+
+    private LoadedRule loadRule(String ruleKey) {
+        DroolsRules rules = rulesRepository.findByRuleKeyAndStatusTrue(ruleKey).orElseThrow(() -> new RuntimeException("规则不存在或已禁用" + ruleKey));
+        return buildLoadedRule(rules);
+    }
+
+    private LoadedRule buildLoadedRule(DroolsRules rules) {
+        KieBase kieBase = ruleCompileCache.acquire(rules.getRuleKey(), rules.getRuleContent(), rules.getCompileMode());
+        return new LoadedRule(rules.getRuleKey(), rules.getVersion(), kieBase, poolMaxIdle, poolMinIdle);
+    }
+
+    /**
+     * 预加载规则，已加载的规则键不重复编译
+     */
+    public void preloadRule(DroolsRules rules) {
+        rulesCache.get(rules.getRuleKey(), key -> buildLoadedRule(rules));
+    }
+
     /**
      * 重新加载规则（热更新）
+     * 新版本在重载线程池中编译，期间旧版本继续处理请求；编译成功后原子替换，失败时保留旧版本。
+     * 同一规则键的重载按提交顺序串行执行，返回结果表示是否重载成功
      */
-    public void reloadRule(String ruleKey){
+    public CompletableFuture<Boolean> reloadRule(String ruleKey){
+        return enqueue(ruleKey, this::doReload, reloadExecutor);
+    }
+
+    /**
+     * 排在该规则键之前提交的任务之后执行
+     */
+    private CompletableFuture<Boolean> enqueue(String ruleKey, Function<String, Boolean> task, Executor executor) {
+        CompletableFuture<Boolean> future = pendingReloads.compute(ruleKey, (key, previous) ->
+                (previous == null ? CompletableFuture.completedFuture(true) : previous)
+                        .handle((result, e) -> key)
+                        .thenApplyAsync(task, executor));
+        future.whenComplete((result, e) -> pendingReloads.remove(ruleKey, future));
+        return future;
+    }
+
+    /**
+     * 规则键被淘汰后解除编译缓存的绑定。在缓存的原子操作内判断，
+     * 期间重新加载了该规则键（重载成功或请求触发的加载）时绑定属于新版本，不解除
+     */
+    private boolean releaseIfUnloaded(String ruleKey) {
+        rulesCache.asMap().compute(ruleKey, (key, current) -> {
+            if (current == null) {
+                ruleCompileCache.release(key);
+                ruleMetrics.remove(key);
+            }
+            return current;
+        });
+        return true;
+    }
+
+    private boolean doReload(String ruleKey) {
         try {
-            rulesCache.remove(ruleKey);
-            getOrLoadKieBase(ruleKey);
-            log.info("规则重载成功");
+            Optional<DroolsRules> rules = rulesRepository.findByRuleKeyAndStatusTrue(ruleKey);
+            if (rules.isEmpty()) {
+                // 规则已禁用或删除，直接卸载；移除和解除绑定在同一个原子操作内，不会解除并发加载的新绑定
+                rulesCache.asMap().compute(ruleKey, (key, oldRule) -> {
+                    ruleCompileCache.release(key);
+                    ruleMetrics.remove(key);
+                    if (oldRule != null) {
+                        oldRule.retire();
+                    }
+                    return null;
+                });
+                log.info("规则已禁用，卸载规则：规则键={}", ruleKey);
+                eventPublisher.publishEvent(new RuleReloadedEvent(ruleKey));
+                return true;
+            }
+
+            long start = System.currentTimeMillis();
+            LoadedRule newRule = buildLoadedRule(rules.get());
+            LoadedRule oldRule = rulesCache.asMap().put(ruleKey, newRule);
+            // 旧版本等进行中的执行结束后再释放
+            if (oldRule != null) {
+                oldRule.retire();
+            }
+            ruleMetrics.retain(ruleKey, ruleNames(newRule.getKieBase()));
+            log.info("规则重载成功：规则键={}, 版本={}, 耗时={}ms, 编译={}", ruleKey, newRule.getVersion(),
+                    System.currentTimeMillis() - start, ruleCompileCache.getUpdateReport(ruleKey));
+            eventPublisher.publishEvent(new RuleReloadedEvent(ruleKey));
+            return true;
         }catch (Exception e){
-            log.error("重载规则失败，规则键={}, {}",ruleKey, e.getMessage());
+            log.error("重载规则失败，保留当前版本：规则键={}, {}", ruleKey, e.getMessage());
+            return false;
         }
     }
 
+    private static Set<String> ruleNames(KieBase kieBase) {
+        Set<String> names = new HashSet<>();
+        kieBase.getKiePackages().forEach(pkg -> pkg.getRules().forEach(rule -> names.add(rule.getName())));
+        return names;
+    }
+
     /**
      * 获取所有已加载的规则键
      */
     public Set<String> getLoadedRuleKeys(){
-        return rulesCache.keySet();
+        return rulesCache.asMap().keySet();
+    }
+
+    /**
+     * 获取各规则键的会话池状态
+     */
+    public Map<String, SessionPoolStats> getSessionPoolStats() {
+        Map<String, SessionPoolStats> stats = new TreeMap<>();
+        rulesCache.asMap().forEach((ruleKey, loadedRule) -> stats.put(ruleKey, loadedRule.getSessionPool().stats()));
+        return stats;
+    }
+
+    /**
+     * 获取规则缓存命中、淘汰统计
+     */
+    public RuleCacheStats getCacheStats() {
+        CacheStats stats = rulesCache.stats();
+        long weightedSize = rulesCache.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0L))
+                .orElse(0L);
+        return new RuleCacheStats(rulesCache.estimatedSize(), weightedSize, cacheMaxWeight,
+                stats.hitCount(), stats.missCount(), stats.hitRate(), stats.evictionCount(),
+                stats.loadFailureCount(), stats.averageLoadPenalty() / 1_000_000.0);
     }
 }
@@ -0,0 +1,246 @@
+package com.wb.rules.service;
+
+import com.wb.rules.service.support.RotatingBloomFilter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 消息幂等存储：每条消息一个Redis键 rule_update_idem:{msgId}，各自过期。
+ * 处理前以SET NX原子占用（值为processing，较短过期，处理节点宕机后可被重新占用），处理完成后改为done并按保留期过期，
+ * 处理失败时释放占用，重投的消息可再次处理。
+ * 本地两代轮换的布隆过滤器记录本节点见过的已完成消息：阴性时直接占用，不再单独查询；阳性时先读一次确认，
+ * 重复消息不产生写入。Redis不可用时一律按未处理返回：消息记录的状态只表示broker已确认发送，不能说明消费端已加载，
+ * 而规则加载可重复执行，重复处理只多一次编译。
+ * 指标 rules.idempotency（result=acquired/duplicate/in_progress/fallback）和
+ * rules.idempotency.filter（result=negative/positive/false_positive）
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class IdempotencyStore {
+
+    private static final String KEY_PREFIX = "rule_update_idem:";
+    private static final String PROCESSING = "processing";
+    private static final String DONE = "done";
+    // 只删除仍处于处理中的占用，不会误删已完成标记
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+            Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${app.rules.idempotency.processing-ttl:PT5M}")
+    private Duration processingTtl;
+
+    @Value("${app.rules.idempotency.ttl:P1D}")
+    private Duration ttl;
+
+    @Value("${app.rules.idempotency.filter.capacity:100000}")
+    private int filterCapacity;
+
+    @Value("${app.rules.idempotency.filter.fpp:0.01}")
+    private double filterFpp;
+
+    private RotatingBloomFilter filter;
+
+    public enum Result {
+        // 已占用，由调用方处理
+        ACQUIRED,
+        // 已处理完成
+        DUPLICATE,
+        // 其他消费者正在处理，或占用者宕机后占用尚未过期，调用方不能直接确认消息，需延迟后重新判断
+        IN_PROGRESS
+    }
+
+    @PostConstruct
+    public void init() {
+        filter = new RotatingBloomFilter(filterCapacity, filterFpp);
+        Gauge.builder("rules.idempotency.filter.bytes", filter, RotatingBloomFilter::memoryBytes)
+                .description("本地幂等过滤器占用的内存")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 占用单条消息
+     */
+    public Result tryAcquire(String msgId) {
+        try {
+            if (filter.mightContain(msgId)) {
+                count("rules.idempotency.filter", "positive");
+                if (DONE.equals(redisTemplate.opsForValue().get(key(msgId)))) {
+                    return record(Result.DUPLICATE);
+                }
+                count("rules.idempotency.filter", "false_positive");
+            } else {
+                count("rules.idempotency.filter", "negative");
+            }
+            if (Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(key(msgId), PROCESSING, processingTtl))) {
+                return record(Result.ACQUIRED);
+            }
+            // 键已存在，读取当前状态；读取时占用恰好过期则按处理中返回，由重投再判断
+            return record(classify(msgId, redisTemplate.opsForValue().get(key(msgId))));
+        } catch (DataAccessException e) {
+            log.warn("Redis幂等检查失败，按未处理继续: {}", msgId, e);
+            count("rules.idempotency", "fallback");
+            return Result.ACQUIRED;
+        }
+    }
+
+    /**
+     * 批量占用，过滤器阳性的消息先一次批量读取确认，其余消息在一次流水线中SET NX
+     */
+    public Map<String, Result> tryAcquireAll(Collection<String> msgIds) {
+        Map<String, Result> results = new LinkedHashMap<>();
+        if (msgIds.isEmpty()) {
+            return results;
+        }
+        try {
+            List<String> candidates = new ArrayList<>();
+            List<String> positives = new ArrayList<>();
+            for (String msgId : msgIds) {
+                (filter.mightContain(msgId) ? positives : candidates).add(msgId);
+            }
+            count("rules.idempotency.filter", "negative", candidates.size());
+            count("rules.idempotency.filter", "positive", positives.size());
+            if (!positives.isEmpty()) {
+                List<String> values = redisTemplate.opsForValue().multiGet(keys(positives));
+                for (int i = 0; i < positives.size(); i++) {
+                    if (values != null && DONE.equals(values.get(i))) {
+                        results.put(positives.get(i), Result.DUPLICATE);
+                    } else {
+                        count("rules.idempotency.filter", "false_positive");
+                        candidates.add(positives.get(i));
+                    }
+                }
+            }
+
+            List<String> conflicts = new ArrayList<>();
+            List<Object> acquired = setIfAbsentAll(candidates);
+            for (int i = 0; i < candidates.size(); i++) {
+                if (Boolean.TRUE.equals(acquired.get(i))) {
+                    results.put(candidates.get(i), Result.ACQUIRED);
+                } else {
+                    conflicts.add(candidates.get(i));
+                }
+            }
+            if (!conflicts.isEmpty()) {
+                List<String> values = redisTemplate.opsForValue().multiGet(keys(conflicts));
+                for (int i = 0; i < conflicts.size(); i++) {
+                    results.put(conflicts.get(i), classify(conflicts.get(i), values == null ? null : values.get(i)));
+                }
+            }
+            results.values().forEach(this::record);
+        } catch (DataAccessException e) {
+            log.warn("Redis批量幂等检查失败，按未处理继续", e);
+            count("rules.idempotency", "fallback", msgIds.size());
+            msgIds.forEach(msgId -> results.put(msgId, Result.ACQUIRED));
+        }
+        return results;
+    }
+
+    /**
+     * 标记处理完成，失败只记录日志：标记丢失时重投的消息会被再次处理，规则加载本身可重复执行
+     */
+    public void markDone(String msgId) {
+        markDoneAll(List.of(msgId));
+    }
+
+    public void markDoneAll(Collection<String> msgIds) {
+        if (msgIds.isEmpty()) {
+            return;
+        }
+        msgIds.forEach(filter::put);
+        try {
+            redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) {
+                    RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                    msgIds.forEach(msgId -> ops.opsForValue().set(key(msgId), DONE, ttl));
+                    return null;
+                }
+            });
+        } catch (DataAccessException e) {
+            log.warn("记录Redis幂等标记失败: {}", msgIds, e);
+        }
+    }
+
+    /**
+     * 处理失败时释放占用
+     */
+    public void release(String msgId) {
+        try {
+            redisTemplate.execute(RELEASE_SCRIPT, List.of(key(msgId)), PROCESSING);
+        } catch (DataAccessException e) {
+            // 占用到期后自动释放
+            log.warn("释放幂等占用失败: {}", msgId, e);
+        }
+    }
+
+    private List<Object> setIfAbsentAll(List<String> msgIds) {
+        if (msgIds.isEmpty()) {
+            return List.of();
+        }
+        return redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                msgIds.forEach(msgId -> ops.opsForValue().setIfAbsent(key(msgId), PROCESSING, processingTtl));
+                return null;
+            }
+        });
+    }
+
+    private Result classify(String msgId, String value) {
+        if (DONE.equals(value)) {
+            // 其他节点处理的消息也记入本地过滤器，重投时只需一次读取
+            filter.put(msgId);
+            return Result.DUPLICATE;
+        }
+        return Result.IN_PROGRESS;
+    }
+
+    private Result record(Result result) {
+        count("rules.idempotency", result.name().toLowerCase());
+        return result;
+    }
+
+    private void count(String name, String result) {
+        count(name, result, 1);
+    }
+
+    private void count(String name, String result, int amount) {
+        if (amount > 0) {
+            Counter.builder(name).tag("result", result).register(meterRegistry).increment(amount);
+        }
+    }
+
+    private static String key(String msgId) {
+        return KEY_PREFIX + msgId;
+    }
+
+    private static List<String> keys(List<String> msgIds) {
+        return msgIds.stream().map(IdempotencyStore::key).toList();
+    }
+}
@@ -5,10 +5,15 @@ import com.wb.rules.entity.MessageLog;
 import com.wb.rules.repository.MessageLogRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
 
@@ -17,17 +22,84 @@ import java.util.Objects;
 @Slf4j
 public class MessageLogService {
 
+    private static final String INSERT_SQL = "INSERT INTO mail_send_log "
+            + "(msg_id, rule_version, status, rule_key, count, try_time, create_time, update_time, message_content) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
     @Autowired
     private MessageLogRepository messageLogRepository;
 
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
     public void insert(MessageLog messageLog) {
         messageLogRepository.save(messageLog);
     }
 
+    /**
+     * 在独立事务中插入并提交，之后才发送的消息收到确认时记录一定可见
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void insertCommitted(MessageLog messageLog) {
+        messageLogRepository.save(messageLog);
+    }
+
+    /**
+     * 批量插入消息记录。msgId由调用方生成，save会先按主键查询一次，批量插入直接走JDBC批处理
+     */
+    public void insertBatch(List<MessageLog> messageLogs) {
+        jdbcTemplate.batchUpdate(INSERT_SQL, messageLogs, messageLogs.size(), (ps, messageLog) -> {
+            ps.setString(1, messageLog.getMsgId());
+            ps.setString(2, messageLog.getRuleVersion());
+            ps.setInt(3, messageLog.getStatus());
+            ps.setString(4, messageLog.getRuleKey());
+            ps.setInt(5, messageLog.getCount());
+            ps.setObject(6, messageLog.getTryTime());
+            ps.setObject(7, messageLog.getCreateTime());
+            ps.setObject(8, messageLog.getUpdateTime());
+            ps.setString(9, messageLog.getMessageContent());
+        });
+    }
+
     public void updateStatus(String msgId, Integer status) {
         messageLogRepository.updateStatus(msgId, status);
     }
 
+    /**
+     * 批量更新消息状态，返回更新的记录数
+     */
+    public int updateStatusBatch(Collection<String> msgIds, Integer status) {
+        return msgIds.isEmpty() ? 0 : messageLogRepository.updateStatusBatch(msgIds, status);
+    }
+
+    /**
+     * 批量标记需要尽快重发的消息：状态保持投递中，重试时间设为当前时间
+     */
+    public int markRetryBatch(Collection<String> msgIds, String errorMsg) {
+        return msgIds.isEmpty() ? 0
+                : messageLogRepository.updateRetryBatch(msgIds, LocalDateTime.now(), truncateErrorMsg(errorMsg));
+    }
+
+    public void updateRetryInfo(String msgId, int retryCount, String errorMsg) {
+        MessageLog messageLog = messageLogRepository.findByMsgId(msgId);
+        if (Objects.isNull(messageLog)) {
+            log.warn("消息记录不存在，无法更新重试信息: {}", msgId);
+            return;
+        }
+        messageLog.setCount(retryCount);
+        messageLog.setErrorMsg(truncateErrorMsg(errorMsg));
+        messageLog.setUpdateTime(LocalDateTime.now());
+        messageLogRepository.save(messageLog);
+    }
+
+    public void markSendFailure(String msgId, String errorMsg) {
+        recordFailure(msgId, "发送失败: " + errorMsg);
+    }
+
+    public void markFinalFailure(String msgId, String errorMsg) {
+        recordFailure(msgId, errorMsg);
+    }
+
     public void updateCount(String msgId, LocalDateTime tryTime) {
         messageLogRepository.updateCount(msgId, tryTime);
     }
@@ -36,8 +108,34 @@ public class MessageLogService {
         return messageLogRepository.findByMsgId(msgId);
     }
 
-    public List<MessageLog> getNeedRetryMessages() {
-        return messageLogRepository.findNeedRetryMessages();
+    /**
+     * 认领一页到期的待重发消息：在同一事务中锁定并把重试时间按指数退避推后，
+     * 推后的重试时间即认领租约，租约到期前其他实例不会再取到这些消息。
+     * 超过最大重试次数的消息标记失败，不返回
+     */
+    public List<MessageLog> claimRetryMessages(int limit, int maxRetryCount, Duration initialBackoff,
+                                               Duration maxBackoff) {
+        LocalDateTime now = LocalDateTime.now();
+        List<MessageLog> claimed = new ArrayList<>();
+        List<String> exhausted = new ArrayList<>();
+        for (MessageLog messageLog : messageLogRepository.lockRetryable(now, limit)) {
+            int count = messageLog.getCount() == null ? 0 : messageLog.getCount();
+            if (count >= maxRetryCount) {
+                exhausted.add(messageLog.getMsgId());
+                continue;
+            }
+            long backoffMillis = Math.min(maxBackoff.toMillis(), initialBackoff.toMillis() << Math.min(count, 20));
+            messageLog.setCount(count + 1);
+            messageLog.setTryTime(now.plus(Duration.ofMillis(backoffMillis)));
+            messageLog.setUpdateTime(now);
+            claimed.add(messageLog);
+        }
+        messageLogRepository.saveAll(claimed);
+        if (!exhausted.isEmpty()) {
+            messageLogRepository.updateStatusBatch(exhausted, MessageStatus.FAILED.getCode());
+            log.warn("消息重试次数已用尽，标记为失败: {}", exhausted);
+        }
+        return claimed;
     }
 
     public boolean isMessageProcessed(String msgId) {
@@ -0,0 +1,336 @@
+package com.wb.rules.service;
+
+import com.wb.rules.common.enums.RescoreJobStatus;
+import com.wb.rules.common.enums.RuleResultCode;
+import com.wb.rules.common.exceptions.RuleException;
+import com.wb.rules.dto.BatchExecutionResult;
+import com.wb.rules.dto.BatchItemResult;
+import com.wb.rules.dto.RescoreJobProgress;
+import com.wb.rules.entity.Order;
+import com.wb.rules.entity.RescoreJob;
+import com.wb.rules.repository.DroolsRulesRepository;
+import com.wb.rules.repository.OrderRepository;
+import com.wb.rules.repository.RescoreJobRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订单批量重算：按主键游标分页读取orders表，每页拆块后在工作线程池中并行执行规则，
+ * 成功结果的score、message用JDBC批量更新写回。每页处理完成后记录断点（最大订单ID），
+ * 暂停、失败或进程重启后可从断点继续。按每秒处理条数限速，工作线程为低优先级，避免挤占线上请求
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class RescoreJobService {
+
+    private static final String UPDATE_SQL = "UPDATE orders SET score = ?, message = ? WHERE id = ?";
+
+    private final OrderRepository orderRepository;
+    private final RescoreJobRepository rescoreJobRepository;
+    private final DroolsRulesRepository rulesRepository;
+    private final DroolsDynamicService droolsDynamicService;
+    private final JdbcTemplate jdbcTemplate;
+
+    // 任务ID -> 运行中的任务
+    private final Map<Long, RunningJob> runningJobs = new ConcurrentHashMap<>();
+    private ThreadPoolExecutor jobExecutor;
+    private ExecutorService workers;
+
+    @Value("${app.rescore.page-size:1000}")
+    private int pageSize;
+
+    @Value("${app.rescore.chunk-size:200}")
+    private int chunkSize;
+
+    @Value("${app.rescore.threads:0}")
+    private int threads;
+
+    @Value("${app.rescore.max-jobs:2}")
+    private int maxJobs;
+
+    @PostConstruct
+    public void init() {
+        int workerThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        CustomizableThreadFactory workerFactory = new CustomizableThreadFactory("rescore-worker-");
+        workerFactory.setThreadPriority(Thread.MIN_PRIORITY);
+        workers = Executors.newFixedThreadPool(workerThreads, workerFactory);
+        jobExecutor = new ThreadPoolExecutor(maxJobs, maxJobs, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), new CustomizableThreadFactory("rescore-job-"));
+
+        // 上次进程退出时仍在运行的任务改为暂停，等待手动继续
+        for (RescoreJob job : rescoreJobRepository.findByStatus(RescoreJobStatus.RUNNING)) {
+            job.setStatus(RescoreJobStatus.PAUSED);
+            job.setErrorMsg("进程重启中断");
+            job.setUpdateTime(LocalDateTime.now());
+            rescoreJobRepository.save(job);
+            log.warn("重算任务因进程重启中断：任务ID={}, 断点={}", job.getId(), job.getLastId());
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        runningJobs.values().forEach(running -> running.stopRequested = true);
+        jobExecutor.shutdown();
+        try {
+            jobExecutor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdownNow();
+    }
+
+    /**
+     * 创建并启动重算任务，maxRate为每秒最多处理的订单数，为空不限速
+     */
+    public RescoreJobProgress start(String ruleKey, Integer maxRate) {
+        if (rulesRepository.findByRuleKeyAndStatusTrue(ruleKey).isEmpty()) {
+            throw new RuleException(RuleResultCode.NOT_FOUND, "规则不存在或已禁用: " + ruleKey);
+        }
+        RescoreJob job = new RescoreJob();
+        job.setRuleKey(ruleKey);
+        job.setStatus(RescoreJobStatus.RUNNING);
+        job.setMaxRate(maxRate);
+        job.setTotal(orderRepository.countByIdGreaterThan(0L));
+        job.setStartTime(LocalDateTime.now());
+        job.setUpdateTime(LocalDateTime.now());
+        rescoreJobRepository.save(job);
+        RunningJob running = new RunningJob(job);
+        runningJobs.put(job.getId(), running);
+        submit(running);
+        log.info("重算任务启动：任务ID={}, 规则键={}, 订单数={}, 限速={}", job.getId(), ruleKey, job.getTotal(), maxRate);
+        return getProgress(job.getId());
+    }
+
+    /**
+     * 从断点继续已暂停或失败的任务，maxRate不为空时同时修改限速
+     */
+    public RescoreJobProgress resume(Long jobId, Integer maxRate) {
+        RescoreJob job = findJob(jobId);
+        if (job.getStatus() == RescoreJobStatus.COMPLETED) {
+            throw new RuleException(RuleResultCode.PARAM_ERROR, "任务状态不允许继续: " + job.getStatus());
+        }
+        // 以登记运行中任务作为互斥，并发的继续请求只有一个能启动
+        RunningJob running = new RunningJob(job);
+        if (runningJobs.putIfAbsent(jobId, running) != null) {
+            throw new RuleException(RuleResultCode.PARAM_ERROR, "任务已在运行: " + jobId);
+        }
+        try {
+            if (maxRate != null) {
+                job.setMaxRate(maxRate);
+                running.maxRate = maxRate;
+            }
+            job.setStatus(RescoreJobStatus.RUNNING);
+            job.setErrorMsg(null);
+            job.setTotal(job.getProcessed() + orderRepository.countByIdGreaterThan(job.getLastId()));
+            job.setUpdateTime(LocalDateTime.now());
+            rescoreJobRepository.save(job);
+        } catch (RuntimeException e) {
+            runningJobs.remove(jobId, running);
+            throw e;
+        }
+        submit(running);
+        log.info("重算任务继续：任务ID={}, 断点={}", jobId, job.getLastId());
+        return getProgress(jobId);
+    }
+
+    /**
+     * 请求暂停，当前页处理完成并记录断点后停止
+     */
+    public RescoreJobProgress pause(Long jobId) {
+        RunningJob running = runningJobs.get(jobId);
+        if (running == null) {
+            throw new RuleException(RuleResultCode.PARAM_ERROR, "任务未在运行: " + jobId);
+        }
+        running.stopRequested = true;
+        return getProgress(jobId);
+    }
+
+    /**
+     * 修改运行中任务的限速，下一页开始生效
+     */
+    public RescoreJobProgress setMaxRate(Long jobId, Integer maxRate) {
+        RunningJob running = runningJobs.get(jobId);
+        if (running == null) {
+            throw new RuleException(RuleResultCode.PARAM_ERROR, "任务未在运行: " + jobId);
+        }
+        running.maxRate = maxRate;
+        return getProgress(jobId);
+    }
+
+    public RescoreJobProgress getProgress(Long jobId) {
+        RunningJob running = runningJobs.get(jobId);
+        return toProgress(running != null ? running.job : findJob(jobId), running);
+    }
+
+    public List<RescoreJobProgress> getJobs() {
+        List<RescoreJobProgress> jobs = new ArrayList<>();
+        for (RescoreJob job : rescoreJobRepository.findAll(Sort.by(Sort.Direction.DESC, "id"))) {
+            RunningJob running = runningJobs.get(job.getId());
+            jobs.add(toProgress(running != null ? running.job : job, running));
+        }
+        return jobs;
+    }
+
+    private RescoreJob findJob(Long jobId) {
+        return rescoreJobRepository.findById(jobId)
+                .orElseThrow(() -> new RuleException(RuleResultCode.NOT_FOUND, "重算任务不存在: " + jobId));
+    }
+
+    /**
+     * 提交已登记的运行中任务
+     */
+    private void submit(RunningJob running) {
+        RescoreJob job = running.job;
+        try {
+            jobExecutor.execute(() -> run(running));
+        } catch (RejectedExecutionException e) {
+            runningJobs.remove(job.getId(), running);
+            job.setStatus(RescoreJobStatus.PAUSED);
+            job.setErrorMsg("同时运行的重算任务数已达上限");
+            rescoreJobRepository.save(job);
+            throw new RuleException(RuleResultCode.TOO_MANY_REQUESTS, "同时运行的重算任务数已达上限: " + maxJobs);
+        }
+    }
+
+    private void run(RunningJob running) {
+        RescoreJob job = running.job;
+        try {
+            while (!running.stopRequested) {
+                // 游标分页读取的实体不在持久化上下文中，处理完即可回收，内存占用与表大小无关
+                List<Order> page = orderRepository.findByIdGreaterThanOrderByIdAsc(job.getLastId(),
+                        PageRequest.of(0, Math.max(1, pageSize)));
+                if (page.isEmpty()) {
+                    job.setStatus(RescoreJobStatus.COMPLETED);
+                    job.setEndTime(LocalDateTime.now());
+                    break;
+                }
+                int failures = processPage(job.getRuleKey(), page);
+                job.setLastId(page.get(page.size() - 1).getId());
+                job.setProcessed(job.getProcessed() + page.size());
+                job.setFailed(job.getFailed() + failures);
+                job.setMaxRate(running.maxRate);
+                job.setUpdateTime(LocalDateTime.now());
+                rescoreJobRepository.save(job);
+                running.processed += page.size();
+                throttle(running);
+            }
+            if (job.getStatus() == RescoreJobStatus.RUNNING) {
+                job.setStatus(RescoreJobStatus.PAUSED);
+            }
+            log.info("重算任务结束：任务ID={}, 状态={}, 已处理={}, 失败={}", job.getId(), job.getStatus(),
+                    job.getProcessed(), job.getFailed());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.setStatus(RescoreJobStatus.PAUSED);
+            job.setErrorMsg("任务线程被中断");
+        } catch (Exception e) {
+            log.error("重算任务失败：任务ID={}, 断点={}", job.getId(), job.getLastId(), e);
+            job.setStatus(RescoreJobStatus.FAILED);
+            String errorMsg = String.valueOf(e.getMessage());
+            job.setErrorMsg(errorMsg.length() > 1000 ? errorMsg.substring(0, 1000) : errorMsg);
+        } finally {
+            job.setUpdateTime(LocalDateTime.now());
+            rescoreJobRepository.save(job);
+            runningJobs.remove(job.getId(), running);
+        }
+    }
+
+    /**
+     * 一页订单拆块并行执行，全部完成后批量写回成功的结果，返回失败数
+     */
+    private int processPage(String ruleKey, List<Order> page) {
+        int size = Math.max(1, chunkSize);
+        List<CompletableFuture<BatchExecutionResult>> futures = new ArrayList<>();
+        for (int from = 0; from < page.size(); from += size) {
+            List<Order> chunk = page.subList(from, Math.min(from + size, page.size()));
+            futures.add(CompletableFuture.supplyAsync(() -> droolsDynamicService.executeBatch(ruleKey, chunk), workers));
+        }
+
+        List<Order> scored = new ArrayList<>(page.size());
+        int failures = 0;
+        for (CompletableFuture<BatchExecutionResult> future : futures) {
+            BatchExecutionResult result = future.join();
+            failures += result.getFailureCount();
+            for (BatchItemResult item : result.getResults()) {
+                if (item.isSuccess()) {
+                    scored.add(item.getData());
+                }
+            }
+        }
+        if (scored.isEmpty()) {
+            return failures;
+        }
+        jdbcTemplate.batchUpdate(UPDATE_SQL, scored, scored.size(), (ps, order) -> {
+            ps.setObject(1, order.getScore());
+            ps.setString(2, order.getMessage());
+            ps.setLong(3, order.getId());
+        });
+        return failures;
+    }
+
+    /**
+     * 按本次运行的平均速度限速：处理量超过限速允许的量时休眠到允许的时间点
+     */
+    private void throttle(RunningJob running) throws InterruptedException {
+        Integer maxRate = running.maxRate;
+        if (maxRate == null || maxRate <= 0) {
+            return;
+        }
+        long expectedNanos = running.processed * 1_000_000_000L / maxRate;
+        long sleepNanos = expectedNanos - (System.nanoTime() - running.startNanos);
+        if (sleepNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(sleepNanos);
+        }
+    }
+
+    private RescoreJobProgress toProgress(RescoreJob job, RunningJob running) {
+        double percent = job.getTotal() == 0 ? 100 : Math.min(100, job.getProcessed() * 100.0 / job.getTotal());
+        double currentRate = 0;
+        if (running != null) {
+            long elapsedNanos = System.nanoTime() - running.startNanos;
+            currentRate = elapsedNanos == 0 ? 0 : running.processed * 1_000_000_000.0 / elapsedNanos;
+        }
+        return new RescoreJobProgress(job.getId(), job.getRuleKey(), job.getStatus(), job.getLastId(), job.getTotal(),
+                job.getProcessed(), job.getFailed(), percent, currentRate,
+                running != null ? running.maxRate : job.getMaxRate(), job.getErrorMsg(),
+                job.getStartTime(), job.getUpdateTime(), job.getEndTime());
+    }
+
+    /**
+     * 运行中任务的控制状态，job只由任务线程修改
+     */
+    private static final class RunningJob {
+        private final RescoreJob job;
+        private final long startNanos = System.nanoTime();
+        private volatile boolean stopRequested;
+        private volatile Integer maxRate;
+        private volatile long processed; // 本次运行处理的订单数
+
+        private RunningJob(RescoreJob job) {
+            this.job = job;
+            this.maxRate = job.getMaxRate();
+        }
+    }
+}
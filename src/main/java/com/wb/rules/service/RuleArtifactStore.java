@@ -0,0 +1,234 @@
+package com.wb.rules.service;
+
+import com.wb.rules.common.enums.RuleCompileMode;
+import com.wb.rules.common.utils.HashUtils;
+import com.wb.rules.dto.ArtifactStoreStats;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.kie.api.KieBase;
+import org.kie.api.KieServices;
+import org.kie.api.builder.KieModule;
+import org.kie.api.builder.ReleaseId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 集群共享的编译产物：首个以可执行模型编译某规则内容的节点把KJAR压缩后写入Redis，其他节点直接加载KJAR，
+ * 由KJAR中已生成的类构建KieBase，不再解析DRL。DRL模式的KJAR只包含规则源文件，加载时仍要完整编译，因此不共享。
+ * 键包含产物格式版本、Drools版本和编译缓存键（编译模式:内容哈希），不同Drools版本的节点互不读取对方的产物；
+ * 产物头再次校验格式、版本、缓存键和KJAR校验和，任一不符即丢弃并回退到本地编译
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class RuleArtifactStore {
+
+    private static final int MAGIC = 0x57424B4A; // "WBKJ"
+    private static final short FORMAT_VERSION = 1;
+    private static final String DROOLS_VERSION = resolveDroolsVersion();
+
+    private final RedisTemplate<String, byte[]> byteRedisTemplate;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    @Value("${app.rules.artifact.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.rules.artifact.ttl:P7D}")
+    private Duration ttl;
+
+    // 压缩后超过该大小的产物不共享
+    @Value("${app.rules.artifact.max-bytes:16777216}")
+    private int maxBytes;
+
+    /**
+     * 从Redis加载编译产物并构建KieBase，不存在或不可用时返回null
+     */
+    public KieBase load(String cacheKey) {
+        if (!isEnabled()) {
+            return null;
+        }
+        String redisKey = redisKey(cacheKey);
+        byte[] artifact;
+        try {
+            artifact = byteRedisTemplate.opsForValue().get(redisKey);
+        } catch (Exception e) {
+            errors.incrementAndGet();
+            log.warn("读取编译产物失败，改为本地编译：{}, {}", cacheKey, e.getMessage());
+            return null;
+        }
+        if (artifact == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        byte[] kjar;
+        try {
+            kjar = decode(cacheKey, artifact);
+        } catch (IOException | IllegalStateException e) {
+            rejected.incrementAndGet();
+            log.warn("编译产物无效，已丢弃：{}, {}", cacheKey, e.getMessage());
+            delete(redisKey);
+            return null;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            KieBase kieBase = toKieBase(kjar);
+            hits.incrementAndGet();
+            log.info("从Redis加载编译产物：{}, 大小={}B, 耗时={}ms", cacheKey, artifact.length,
+                    System.currentTimeMillis() - start);
+            return kieBase;
+        } catch (Exception e) {
+            rejected.incrementAndGet();
+            log.warn("编译产物加载失败，已丢弃：{}, {}", cacheKey, e.getMessage());
+            delete(redisKey);
+            return null;
+        }
+    }
+
+    /**
+     * 发布本地编译的产物，已有其他节点发布时不覆盖。只发布可执行模型的产物
+     */
+    public void publish(String cacheKey, RuleCompileMode compiledMode, byte[] kjar) {
+        if (!isEnabled() || kjar == null || compiledMode != RuleCompileMode.EXECUTABLE_MODEL) {
+            return;
+        }
+        try {
+            byte[] artifact = encode(cacheKey, compiledMode, kjar);
+            if (artifact.length > maxBytes) {
+                log.info("编译产物超过共享大小上限，不发布：{}, 大小={}B", cacheKey, artifact.length);
+                return;
+            }
+            Boolean stored = byteRedisTemplate.opsForValue().setIfAbsent(redisKey(cacheKey), artifact, ttl);
+            if (Boolean.TRUE.equals(stored)) {
+                published.incrementAndGet();
+                log.info("发布编译产物：{}, 大小={}B", cacheKey, artifact.length);
+            }
+        } catch (Exception e) {
+            errors.incrementAndGet();
+            log.warn("发布编译产物失败：{}, {}", cacheKey, e.getMessage());
+        }
+    }
+
+    public ArtifactStoreStats stats() {
+        return new ArtifactStoreStats(isEnabled(), DROOLS_VERSION, hits.get(), misses.get(), rejected.get(),
+                published.get(), errors.get());
+    }
+
+    /**
+     * 无法确定Drools版本时不共享，避免加载不兼容的产物
+     */
+    private boolean isEnabled() {
+        return enabled && DROOLS_VERSION != null;
+    }
+
+    private void delete(String redisKey) {
+        try {
+            byteRedisTemplate.delete(redisKey);
+        } catch (Exception e) {
+            errors.incrementAndGet();
+        }
+    }
+
+    private static String redisKey(String cacheKey) {
+        return "drools_artifact:v" + FORMAT_VERSION + ":" + DROOLS_VERSION + ":" + cacheKey;
+    }
+
+    /**
+     * 产物格式：魔数、格式版本、Drools版本、缓存键、实际编译模式、KJAR的SHA-256，之后为gzip压缩的KJAR
+     */
+    private static byte[] encode(String cacheKey, RuleCompileMode compiledMode, byte[] kjar) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(kjar.length / 2 + 256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeShort(FORMAT_VERSION);
+        out.writeUTF(DROOLS_VERSION);
+        out.writeUTF(cacheKey);
+        out.writeUTF(compiledMode.name());
+        out.writeUTF(HashUtils.sha256(kjar));
+        out.flush();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(kjar);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] decode(String cacheKey, byte[] artifact) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(artifact));
+        if (in.readInt() != MAGIC) {
+            throw new IllegalStateException("不是编译产物");
+        }
+        short formatVersion = in.readShort();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IllegalStateException("产物格式版本不符: " + formatVersion);
+        }
+        String droolsVersion = in.readUTF();
+        if (!DROOLS_VERSION.equals(droolsVersion)) {
+            throw new IllegalStateException("Drools版本不符: " + droolsVersion);
+        }
+        String artifactKey = in.readUTF();
+        if (!cacheKey.equals(artifactKey)) {
+            throw new IllegalStateException("缓存键不符: " + artifactKey);
+        }
+        in.readUTF(); // 编译模式，仅用于排查
+        String checksum = in.readUTF();
+        byte[] kjar;
+        try (InputStream gzip = new GZIPInputStream(in)) {
+            kjar = gzip.readAllBytes();
+        }
+        if (!checksum.equals(HashUtils.sha256(kjar))) {
+            throw new IllegalStateException("KJAR校验和不符");
+        }
+        return kjar;
+    }
+
+    /**
+     * KJAR加入全局仓库后构建KieBase，构建完成即移除模块，与本地编译的处理一致
+     */
+    private static KieBase toKieBase(byte[] kjar) {
+        KieServices kieServices = KieServices.Factory.get();
+        KieModule kieModule = kieServices.getRepository()
+                .addKieModule(kieServices.getResources().newByteArrayResource(kjar));
+        ReleaseId releaseId = kieModule.getReleaseId();
+        try {
+            return kieServices.newKieContainer(releaseId).getKieBase();
+        } finally {
+            kieServices.getRepository().removeKieModule(releaseId);
+        }
+    }
+
+    /**
+     * 从drools-core的Maven元数据读取版本号
+     */
+    private static String resolveDroolsVersion() {
+        try (InputStream in = KieBase.class.getClassLoader()
+                .getResourceAsStream("META-INF/maven/org.drools/drools-core/pom.properties")) {
+            if (in != null) {
+                Properties properties = new Properties();
+                properties.load(in);
+                return properties.getProperty("version");
+            }
+        } catch (IOException e) {
+            log.warn("读取Drools版本失败", e);
+        }
+        log.warn("无法确定Drools版本，编译产物不在节点间共享");
+        return null;
+    }
+}
@@ -0,0 +1,343 @@
+package com.wb.rules.service;
+
+import com.wb.rules.common.enums.RuleCompileMode;
+import com.wb.rules.common.exceptions.RuleException;
+import com.wb.rules.common.utils.HashUtils;
+import com.wb.rules.dto.CompileCacheStats;
+import com.wb.rules.dto.RuleUpdateReport;
+import com.wb.rules.service.support.IncrementalRuleBase;
+import lombok.extern.slf4j.Slf4j;
+import org.drools.compiler.kie.builder.impl.InternalKieModule;
+import org.drools.model.codegen.ExecutableModelProject;
+import org.kie.api.KieBase;
+import org.kie.api.KieServices;
+import org.kie.api.builder.KieBuilder;
+import org.kie.api.builder.KieFileSystem;
+import org.kie.api.builder.Message;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.builder.Results;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 规则编译缓存
+ * 以DRL内容的SHA-256为键缓存编译后的KieBase：校验时的编译结果可被随后的加载直接复用，
+ * 内容完全相同的规则键共享同一个KieBase，按引用计数回收。不同编译模式的结果分开缓存。
+ * 规则数较多的DRL规则键改为独占一个增量编译模块，更新时只重新编译变化的规则，每个版本构建新的KieBase。
+ * 可执行模型的规则内容在本地缓存未命中时先从集群共享的编译产物加载，加载不到才编译并发布产物
+ */
+@Service
+@Slf4j
+public class RuleCompileCache {
+
+    // 编译序号，拼进ReleaseId，内容相同的并发编译也各用各的模块
+    private static final AtomicLong COMPILE_SEQUENCE = new AtomicLong();
+
+    private final Map<String, CompiledEntry> entries = new ConcurrentHashMap<>(); // 编译模式:内容哈希 -> 编译结果
+    private final Map<String, String> bindings = new ConcurrentHashMap<>();       // 规则键 -> 编译模式:内容哈希
+    private final Map<String, IncrementalRuleBase> incrementals = new ConcurrentHashMap<>(); // 规则键 -> 增量编译模块
+    private final Map<String, RuleUpdateReport> updateReports = new ConcurrentHashMap<>();  // 规则键 -> 最近一次编译结果
+
+    // 为空时只在本地编译（基准测试等不依赖Spring容器的场景）
+    private RuleArtifactStore artifactStore;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    // 只校验未加载的编译结果保留时长
+    @Value("${app.rules.compile-cache.orphan-ttl:300000}")
+    private long orphanTtlMillis;
+
+    @Value("${app.rules.incremental.enabled:true}")
+    private boolean incrementalEnabled;
+
+    // 规则数达到该值的DRL规则键走增量编译
+    @Value("${app.rules.incremental.min-rules:50}")
+    private int incrementalMinRules;
+
+    @Autowired(required = false)
+    public void setArtifactStore(RuleArtifactStore artifactStore) {
+        this.artifactStore = artifactStore;
+    }
+
+    /**
+     * 校验规则语法，编译结果保留在缓存中供随后的加载复用
+     */
+    public String validate(String ruleContent, RuleCompileMode compileMode) {
+        String cacheKey = cacheKey(ruleContent, compileMode);
+        getOrCompile(cacheKey, ruleContent, RuleCompileMode.orDefault(compileMode));
+        purgeOrphans();
+        return cacheKey;
+    }
+
+    /**
+     * 校验已有规则键的新内容：增量规则键只单独编译变化的规则，不修改正在使用的增量模块
+     */
+    public void validate(String ruleKey, String ruleContent, RuleCompileMode compileMode) {
+        IncrementalRuleBase incremental = incrementals.get(ruleKey);
+        if (incremental != null && RuleCompileMode.orDefault(compileMode) == RuleCompileMode.DRL) {
+            incremental.validate(ruleContent);
+            return;
+        }
+        validate(ruleContent, compileMode);
+    }
+
+    /**
+     * 将规则键绑定到内容对应的KieBase，内容相同的规则键共享同一个KieBase
+     */
+    public KieBase acquire(String ruleKey, String ruleContent, RuleCompileMode compileMode) {
+        if (useIncremental(ruleKey, ruleContent, compileMode)) {
+            return acquireIncremental(ruleKey, ruleContent);
+        }
+        closeIncremental(ruleKey);
+        long start = System.currentTimeMillis();
+        String cacheKey = cacheKey(ruleContent, compileMode);
+        CompiledEntry compiled = getOrCompile(cacheKey, ruleContent, RuleCompileMode.orDefault(compileMode));
+        synchronized (this) {
+            // 编译期间条目可能已被回收或替换，优先使用缓存中已编译好的条目
+            CompiledEntry entry = entries.merge(cacheKey, compiled,
+                    (current, mine) -> current.kieBase != null ? current : mine);
+            String oldKey = bindings.put(ruleKey, cacheKey);
+            if (!cacheKey.equals(oldKey)) {
+                entry.refCount++;
+                if (oldKey != null) {
+                    unreference(oldKey);
+                }
+            }
+            int ruleCount = entry.kieBase.getKiePackages().stream().mapToInt(pkg -> pkg.getRules().size()).sum();
+            updateReports.put(ruleKey, new RuleUpdateReport(ruleKey, false, ruleCount, ruleCount, 0, 0, true,
+                    System.currentTimeMillis() - start));
+            return entry.kieBase;
+        }
+    }
+
+    /**
+     * 规则键卸载时解除绑定
+     */
+    public synchronized void release(String ruleKey) {
+        String oldKey = bindings.remove(ruleKey);
+        if (oldKey != null) {
+            unreference(oldKey);
+        }
+        closeIncremental(ruleKey);
+    }
+
+    /**
+     * 获取各规则键最近一次编译的规则变化情况
+     */
+    public Map<String, RuleUpdateReport> getUpdateReports() {
+        return new TreeMap<>(updateReports);
+    }
+
+    public RuleUpdateReport getUpdateReport(String ruleKey) {
+        return updateReports.get(ruleKey);
+    }
+
+    private boolean useIncremental(String ruleKey, String ruleContent, RuleCompileMode compileMode) {
+        if (!incrementalEnabled || RuleCompileMode.orDefault(compileMode) != RuleCompileMode.DRL) {
+            return false;
+        }
+        try {
+            return incrementals.containsKey(ruleKey) || IncrementalRuleBase.countRules(ruleContent) >= incrementalMinRules;
+        } catch (RuleException e) {
+            // 无法按规则拆分的内容走完整编译，由编译器报告错误
+            return false;
+        }
+    }
+
+    /**
+     * 已有增量模块时只编译变化的规则并构建新的KieBase，否则完整编译一次并解除共享缓存的绑定
+     */
+    private KieBase acquireIncremental(String ruleKey, String ruleContent) {
+        IncrementalRuleBase incremental = incrementals.get(ruleKey);
+        if (incremental != null) {
+            updateReports.put(ruleKey, incremental.update(ruleContent));
+            return incremental.getKieBase();
+        }
+        long start = System.currentTimeMillis();
+        incremental = IncrementalRuleBase.create(ruleKey, ruleContent);
+        IncrementalRuleBase previous = incrementals.put(ruleKey, incremental);
+        if (previous != null) {
+            previous.close();
+        }
+        synchronized (this) {
+            String oldKey = bindings.remove(ruleKey);
+            if (oldKey != null) {
+                unreference(oldKey);
+            }
+        }
+        updateReports.put(ruleKey, incremental.fullBuildReport(System.currentTimeMillis() - start));
+        log.info("规则键改为增量编译：{}", ruleKey);
+        return incremental.getKieBase();
+    }
+
+    private void closeIncremental(String ruleKey) {
+        IncrementalRuleBase incremental = incrementals.remove(ruleKey);
+        if (incremental != null) {
+            incremental.close();
+        }
+    }
+
+    public CompileCacheStats stats() {
+        return new CompileCacheStats(entries.size(), bindings.size(), hits.get(), misses.get(), evictions.get());
+    }
+
+    /**
+     * 将多个规则内容编译进同一个KieBase，不经过缓存，由调用方自行缓存
+     */
+    public KieBase compileComposite(List<String> ruleContents, RuleCompileMode compileMode) {
+        return compileWithFallback(ruleContents, RuleCompileMode.orDefault(compileMode), false).kieBase;
+    }
+
+    private static String cacheKey(String ruleContent, RuleCompileMode compileMode) {
+        return RuleCompileMode.orDefault(compileMode).name() + ":" + HashUtils.sha256(ruleContent);
+    }
+
+    private CompiledEntry getOrCompile(String cacheKey, String ruleContent, RuleCompileMode compileMode) {
+        CompiledEntry entry = entries.computeIfAbsent(cacheKey, CompiledEntry::new);
+        try {
+            entry.compileIfAbsent(ruleContent, compileMode);
+            return entry;
+        } catch (RuntimeException e) {
+            // 编译失败不缓存
+            entries.remove(cacheKey, entry);
+            throw e;
+        }
+    }
+
+    private void unreference(String cacheKey) {
+        CompiledEntry entry = entries.get(cacheKey);
+        if (entry != null && --entry.refCount <= 0 && entries.remove(cacheKey, entry)) {
+            evictions.incrementAndGet();
+            log.info("编译缓存回收：{}", cacheKey);
+        }
+    }
+
+    /**
+     * 清理只做过校验、一直没有规则键引用的编译结果
+     */
+    private synchronized void purgeOrphans() {
+        long expireBefore = System.currentTimeMillis() - orphanTtlMillis;
+        entries.values().removeIf(entry -> {
+            boolean orphan = entry.refCount <= 0 && entry.lastAccess < expireBefore;
+            if (orphan) {
+                evictions.incrementAndGet();
+            }
+            return orphan;
+        });
+    }
+
+    /**
+     * 按编译模式编译规则内容，可执行模型编译失败时回退到DRL编译
+     */
+    private static CompiledModule compileWithFallback(List<String> ruleContents, RuleCompileMode compileMode,
+                                                      boolean withKjar) {
+        if (compileMode == RuleCompileMode.EXECUTABLE_MODEL) {
+            try {
+                return compile(ruleContents, RuleCompileMode.EXECUTABLE_MODEL, withKjar);
+            } catch (RuntimeException e) {
+                log.warn("可执行模型编译失败，回退到DRL编译：{}", e.getMessage());
+            }
+        }
+        return compile(ruleContents, RuleCompileMode.DRL, withKjar);
+    }
+
+    /**
+     * 编译规则内容，每次编译使用独立的ReleaseId，避免并发编译互相覆盖。withKjar为true时同时返回KJAR字节供共享
+     */
+    private static CompiledModule compile(List<String> ruleContents, RuleCompileMode compileMode, boolean withKjar) {
+        try {
+            KieServices kieServices = KieServices.Factory.get();
+            String contentHash = HashUtils.sha256(String.join("\n", ruleContents));
+            ReleaseId releaseId = kieServices.newReleaseId("com.wb.rules.compiled",
+                    "rule-" + compileMode.name().toLowerCase() + "-" + contentHash + "-" + COMPILE_SEQUENCE.incrementAndGet(),
+                    "1.0.0");
+            KieFileSystem kfs = kieServices.newKieFileSystem();
+            kfs.generateAndWritePomXML(releaseId);
+            for (int i = 0; i < ruleContents.size(); i++) {
+                kfs.write("src/main/resources/rules/" + contentHash + "-" + i + ".drl", ruleContents.get(i));
+            }
+
+            KieBuilder kieBuilder = kieServices.newKieBuilder(kfs);
+            if (compileMode == RuleCompileMode.EXECUTABLE_MODEL) {
+                kieBuilder.buildAll(ExecutableModelProject.class);
+            } else {
+                kieBuilder.buildAll();
+            }
+            Results results = kieBuilder.getResults();
+            if (results.hasMessages(Message.Level.ERROR)) {
+                String errorMsg = results.getMessages().toString();
+                log.error("规则编译错误：{}", errorMsg);
+                throw new RuleException("规则语法错误: " + errorMsg);
+            }
+            KieBase kieBase = kieServices.newKieContainer(releaseId).getKieBase();
+            byte[] kjar = withKjar ? ((InternalKieModule) kieBuilder.getKieModule()).getBytes() : null;
+            // KieBase已构建完成，不再在全局仓库中保留该模块
+            kieServices.getRepository().removeKieModule(releaseId);
+            return new CompiledModule(kieBase, compileMode, kjar);
+        } catch (RuleException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("规则编译失败", e);
+            throw new RuleException("规则编译失败：" + e.getMessage());
+        }
+    }
+
+    private final class CompiledEntry {
+        private final String cacheKey;
+        private volatile KieBase kieBase;
+        private volatile long lastAccess = System.currentTimeMillis();
+        private int refCount; // 由外层对象锁保护
+
+        private CompiledEntry(String cacheKey) {
+            this.cacheKey = cacheKey;
+        }
+
+        /**
+         * 同一内容只编译一次，并发请求等待同一次编译结果
+         */
+        private synchronized void compileIfAbsent(String ruleContent, RuleCompileMode compileMode) {
+            lastAccess = System.currentTimeMillis();
+            if (kieBase != null) {
+                hits.incrementAndGet();
+                return;
+            }
+            misses.incrementAndGet();
+            // 只有可执行模型的KJAR包含编译结果，DRL的KJAR加载时仍要完整编译，不共享
+            boolean shared = artifactStore != null && compileMode == RuleCompileMode.EXECUTABLE_MODEL;
+            if (shared) {
+                kieBase = artifactStore.load(cacheKey);
+                if (kieBase != null) {
+                    return;
+                }
+            }
+            long start = System.currentTimeMillis();
+            CompiledModule compiled = compileWithFallback(List.of(ruleContent), compileMode, shared);
+            kieBase = compiled.kieBase;
+            log.info("规则编译完成：{}, 耗时={}ms", cacheKey, System.currentTimeMillis() - start);
+            if (shared) {
+                artifactStore.publish(cacheKey, compiled.compileMode, compiled.kjar);
+            }
+        }
+    }
+
+    private static final class CompiledModule {
+        private final KieBase kieBase;
+        private final RuleCompileMode compileMode; // 实际编译模式
+        private final byte[] kjar;
+
+        private CompiledModule(KieBase kieBase, RuleCompileMode compileMode, byte[] kjar) {
+            this.kieBase = kieBase;
+            this.compileMode = compileMode;
+            this.kjar = kjar;
+        }
+    }
+}
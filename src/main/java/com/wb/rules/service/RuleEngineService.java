@@ -1,5 +1,7 @@
 package com.wb.rules.service;
 
+import com.wb.rules.dto.RuleVersionStatus;
+
 public interface RuleEngineService {
     /**
      * 动态加载规则
@@ -11,8 +13,28 @@ public interface RuleEngineService {
      */
     void executeRule(Object fact, String ruleVersion, String ruleKey);
 
+    /**
+     * 按正式/灰度权重选择版本执行规则，返回实际执行的版本
+     */
+    String executeRule(Object fact, String ruleKey);
+
     /**
      * 获取规则内容
      */
     String getRuleContent(String ruleVersion, String ruleKey);
+
+    /**
+     * 设置正式版本
+     */
+    void activate(String ruleKey, String ruleVersion);
+
+    /**
+     * 设置灰度版本及其流量百分比，百分比为0时取消灰度
+     */
+    void setCanary(String ruleKey, String ruleVersion, int percent);
+
+    /**
+     * 获取规则键的版本路由状态
+     */
+    RuleVersionStatus getVersionStatus(String ruleKey);
 }
@@ -1,14 +1,21 @@
 package com.wb.rules.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wb.rules.common.enums.RuleCompileMode;
 import com.wb.rules.entity.DroolsRules;
+import com.wb.rules.entity.RuleTemplateParam;
 import com.wb.rules.repository.DroolsRulesRepository;
+import com.wb.rules.repository.RuleTemplateParamRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.kie.api.builder.Message;
-import org.kie.api.builder.Results;
-import org.kie.api.io.ResourceType;
-import org.kie.internal.utils.KieHelper;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 @Service
 @Slf4j
@@ -16,6 +23,12 @@ import org.springframework.stereotype.Service;
 public class RuleManagementService {
     private final DroolsRulesRepository droolsRulesRepository;
     private final DroolsDynamicService droolsDynamicService;
+    private final RuleCompileCache ruleCompileCache;
+    private final RuleTemplateService ruleTemplateService;
+    private final RuleTemplateParamRepository templateParamRepository;
+    private final ObjectMapper objectMapper;
+    private final RuleOutboxService ruleOutboxService;
+    private final TransactionTemplate transactionTemplate;
 
     /**
      * 创建新规则
@@ -25,9 +38,16 @@ public class RuleManagementService {
             throw new RuntimeException("规则键已存在: " + rule.getRuleKey());
         }
 
+        rule.setCompileMode(RuleCompileMode.orDefault(rule.getCompileMode()));
+        // 模板规则创建时还没有参数行，规则内容只包含模板头
+        if (rule.getTemplateContent() != null) {
+            rule.setTemplateVersion(1);
+            rule.setRuleContent(ruleTemplateService.generate(rule, List.of()));
+        }
+
         //预编译验证规则语法
-        validateRuleContent(rule.getRuleContent());
-        DroolsRules savedRule = droolsRulesRepository.save(rule);
+        validateRuleContent(rule.getRuleKey(), rule.getRuleContent(), rule.getCompileMode());
+        DroolsRules savedRule = saveWithOutbox(rule, null);
         droolsDynamicService.reloadRule(rule.getRuleKey());
         return savedRule;
     }
@@ -39,15 +59,20 @@ public class RuleManagementService {
         DroolsRules existingRule = droolsRulesRepository.findByRuleKeyAndStatusTrue(ruleKey)
                 .orElseThrow(() -> new RuntimeException("规则不存在: " + ruleKey));
 
+        // 未指定编译模式时沿用原有模式
+        if (ruleUpdate.getCompileMode() != null) {
+            existingRule.setCompileMode(ruleUpdate.getCompileMode());
+        }
+
         // 验证新规则语法
-        validateRuleContent(ruleUpdate.getRuleContent());
+        validateRuleContent(ruleKey, ruleUpdate.getRuleContent(), existingRule.getCompileMode());
 
         existingRule.setRuleContent(ruleUpdate.getRuleContent());
         existingRule.setRuleName(ruleUpdate.getRuleName());
         existingRule.setDescription(ruleUpdate.getDescription());
         existingRule.setVersion(existingRule.getVersion() + 1);
 
-        DroolsRules updatedRule = droolsRulesRepository.save(existingRule);
+        DroolsRules updatedRule = saveWithOutbox(existingRule, null);
         // 重新加载规则
         droolsDynamicService.reloadRule(ruleKey);
 
@@ -55,17 +80,112 @@ public class RuleManagementService {
     }
 
     /**
-     * 验证规则内容语法
+     * 更新规则模板，用已有参数行重新生成规则内容
+     */
+    public DroolsRules updateTemplate(String ruleKey, String templateContent) {
+        DroolsRules existingRule = droolsRulesRepository.findByRuleKeyAndStatusTrue(ruleKey)
+                .orElseThrow(() -> new RuntimeException("规则不存在: " + ruleKey));
+        existingRule.setTemplateContent(templateContent);
+        existingRule.setTemplateVersion(existingRule.getTemplateVersion() == null ? 1 : existingRule.getTemplateVersion() + 1);
+        String ruleContent = generateRuleContent(existingRule, templateParamRepository.findByRuleKeyOrderByIdAsc(ruleKey));
+        return saveGenerated(existingRule, ruleContent, null);
+    }
+
+    /**
+     * 新增或修改模板参数行，只有该行对应的规则需要重新展开
      */
-    private void validateRuleContent(String ruleContent) {
+    public DroolsRules saveTemplateParam(String ruleKey, String rowKey, Map<String, Object> params) {
+        DroolsRules existingRule = findTemplateRule(ruleKey);
+        RuleTemplateParam param = templateParamRepository.findByRuleKeyAndRowKey(ruleKey, rowKey)
+                .orElseGet(() -> {
+                    RuleTemplateParam created = new RuleTemplateParam();
+                    created.setRuleKey(ruleKey);
+                    created.setRowKey(rowKey);
+                    created.setCreatedTime(LocalDateTime.now());
+                    return created;
+                });
         try {
-            KieHelper kieHelper = new KieHelper();
-            kieHelper.addContent(ruleContent, ResourceType.DRL);
-            Results results = kieHelper.verify();
+            param.setParams(objectMapper.writeValueAsString(params));
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("参数行格式错误: " + e.getMessage());
+        }
+        param.setUpdatedTime(LocalDateTime.now());
+
+        List<RuleTemplateParam> rows = new ArrayList<>(templateParamRepository.findByRuleKeyOrderByIdAsc(ruleKey));
+        rows.removeIf(row -> row.getRowKey().equals(rowKey));
+        rows.add(param);
+        rows.sort((a, b) -> a.getId() == null ? 1 : b.getId() == null ? -1 : a.getId().compareTo(b.getId()));
+
+        // 先生成并校验，通过后参数行与规则在同一事务中保存，提交后才重载
+        String ruleContent = generateRuleContent(existingRule, rows);
+        return saveGenerated(existingRule, ruleContent, () -> templateParamRepository.save(param));
+    }
+
+    /**
+     * 删除模板参数行
+     */
+    public DroolsRules deleteTemplateParam(String ruleKey, String rowKey) {
+        DroolsRules existingRule = findTemplateRule(ruleKey);
+        RuleTemplateParam param = templateParamRepository.findByRuleKeyAndRowKey(ruleKey, rowKey)
+                .orElseThrow(() -> new RuntimeException("参数行不存在: " + rowKey));
+        List<RuleTemplateParam> rows = new ArrayList<>(templateParamRepository.findByRuleKeyOrderByIdAsc(ruleKey));
+        rows.removeIf(row -> row.getRowKey().equals(rowKey));
+
+        String ruleContent = generateRuleContent(existingRule, rows);
+        return saveGenerated(existingRule, ruleContent, () -> templateParamRepository.delete(param));
+    }
+
+    public List<RuleTemplateParam> getTemplateParams(String ruleKey) {
+        return templateParamRepository.findByRuleKeyOrderByIdAsc(ruleKey);
+    }
+
+    private DroolsRules findTemplateRule(String ruleKey) {
+        DroolsRules existingRule = droolsRulesRepository.findByRuleKeyAndStatusTrue(ruleKey)
+                .orElseThrow(() -> new RuntimeException("规则不存在: " + ruleKey));
+        if (existingRule.getTemplateContent() == null) {
+            throw new RuntimeException("规则未配置模板: " + ruleKey);
+        }
+        return existingRule;
+    }
 
-            if (results.hasMessages(Message.Level.ERROR)) {
-                throw new RuntimeException("规则语法错误: " + results.getMessages());
+    /**
+     * 由模板和参数行重新生成规则内容并校验语法
+     */
+    private String generateRuleContent(DroolsRules existingRule, List<RuleTemplateParam> rows) {
+        String ruleContent = ruleTemplateService.generate(existingRule, rows);
+        validateRuleContent(existingRule.getRuleKey(), ruleContent, existingRule.getCompileMode());
+        return ruleContent;
+    }
+
+    private DroolsRules saveGenerated(DroolsRules existingRule, String ruleContent, Runnable paramChange) {
+        existingRule.setRuleContent(ruleContent);
+        existingRule.setVersion(existingRule.getVersion() + 1);
+        DroolsRules updatedRule = saveWithOutbox(existingRule, paramChange);
+        droolsDynamicService.reloadRule(existingRule.getRuleKey());
+        return updatedRule;
+    }
+
+    /**
+     * 规则（及参数行）变更与发件箱记录在同一事务中保存，由发件箱中继通知其他节点
+     */
+    private DroolsRules saveWithOutbox(DroolsRules rule, Runnable paramChange) {
+        return transactionTemplate.execute(status -> {
+            if (paramChange != null) {
+                paramChange.run();
             }
+            DroolsRules savedRule = droolsRulesRepository.save(rule);
+            ruleOutboxService.append(savedRule);
+            return savedRule;
+        });
+    }
+
+    /**
+     * 验证规则内容语法，编译结果进入编译缓存，随后的重载不再重复编译；
+     * 增量编译的规则键只编译变化的规则
+     */
+    private void validateRuleContent(String ruleKey, String ruleContent, RuleCompileMode compileMode) {
+        try {
+            ruleCompileCache.validate(ruleKey, ruleContent, compileMode);
         } catch (Exception e) {
             throw new RuntimeException("规则验证失败: " + e.getMessage());
         }
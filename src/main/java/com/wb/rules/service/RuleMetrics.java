@@ -0,0 +1,116 @@
+package com.wb.rules.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.kie.api.event.rule.AfterMatchFiredEvent;
+import org.kie.api.event.rule.AgendaEventListener;
+import org.kie.api.event.rule.BeforeMatchFiredEvent;
+import org.kie.api.event.rule.DefaultAgendaEventListener;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按规则键和规则名统计触发次数与RHS执行耗时（指标 rules.fired，计数即触发次数）。
+ * 规则数可能很多，每条规则只发布少量固定的SLO桶，不发布百分位直方图。
+ * 规则键重载后移除已删除规则的计时器，卸载或淘汰时移除该规则键的全部计时器。
+ * 可在运行时开关，关闭时执行路径上不挂监听器
+ */
+@Component
+@RequiredArgsConstructor
+public class RuleMetrics {
+
+    private final MeterRegistry meterRegistry;
+
+    // 规则键 -> 规则名 -> 计时器
+    private final Map<String, Map<String, Timer>> timers = new ConcurrentHashMap<>();
+
+    @Value("${app.rules.metrics.enabled:false}")
+    private volatile boolean enabled;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * 为一次执行创建监听器，未开启时返回null
+     */
+    public AgendaEventListener listener(String ruleKey) {
+        if (!enabled) {
+            return null;
+        }
+        return new FiringListener(timers.computeIfAbsent(ruleKey, key -> new ConcurrentHashMap<>()), ruleKey);
+    }
+
+    /**
+     * 规则键重载后只保留新版本中仍存在的规则的计时器
+     */
+    public void retain(String ruleKey, Set<String> ruleNames) {
+        Map<String, Timer> ruleTimers = timers.get(ruleKey);
+        if (ruleTimers != null) {
+            ruleTimers.entrySet().removeIf(entry -> {
+                boolean removed = !ruleNames.contains(entry.getKey());
+                if (removed) {
+                    meterRegistry.remove(entry.getValue());
+                }
+                return removed;
+            });
+        }
+    }
+
+    /**
+     * 规则键卸载或被淘汰时移除其全部计时器
+     */
+    public void remove(String ruleKey) {
+        Map<String, Timer> ruleTimers = timers.remove(ruleKey);
+        if (ruleTimers != null) {
+            ruleTimers.values().forEach(meterRegistry::remove);
+        }
+    }
+
+    private Timer timer(String ruleKey, String ruleName) {
+        return Timer.builder("rules.fired")
+                .description("规则触发次数及RHS执行耗时")
+                .tag("ruleKey", ruleKey)
+                .tag("rule", ruleName)
+                .serviceLevelObjectives(Duration.ofMillis(1), Duration.ofMillis(10), Duration.ofMillis(100))
+                .register(meterRegistry);
+    }
+
+    /**
+     * 会话同一时间只被一个线程使用，RHS在触发线程上同步执行，开始时间用字段记录即可
+     */
+    private final class FiringListener extends DefaultAgendaEventListener {
+        private final Map<String, Timer> ruleTimers;
+        private final String ruleKey;
+        private long start;
+
+        private FiringListener(Map<String, Timer> ruleTimers, String ruleKey) {
+            this.ruleTimers = ruleTimers;
+            this.ruleKey = ruleKey;
+        }
+
+        @Override
+        public void beforeMatchFired(BeforeMatchFiredEvent event) {
+            start = System.nanoTime();
+        }
+
+        @Override
+        public void afterMatchFired(AfterMatchFiredEvent event) {
+            long elapsed = System.nanoTime() - start;
+            String ruleName = event.getMatch().getRule().getName();
+            ruleTimers.computeIfAbsent(ruleName, name -> timer(ruleKey, name))
+                    .record(elapsed, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.wb.rules.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wb.rules.common.enums.MessageStatus;
+import com.wb.rules.common.exceptions.RuleException;
+import com.wb.rules.entity.DroolsRules;
+import com.wb.rules.entity.RuleOutbox;
+import com.wb.rules.event.RuleUpdateEvent;
+import com.wb.rules.repository.RuleOutboxRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 规则更新发件箱：规则变更与完整的更新事件在同一事务中写入，由中继按ID顺序发布到MQ
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class RuleOutboxService {
+
+    private final RuleOutboxRepository ruleOutboxRepository;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * 写入规则更新事件，必须在规则变更的事务中调用
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public RuleOutbox append(DroolsRules rules) {
+        RuleUpdateEvent event = new RuleUpdateEvent();
+        event.setRuleKey(rules.getRuleKey());
+        event.setRuleVersion(String.valueOf(rules.getVersion()));
+        event.setRuleContent(rules.getRuleContent());
+        event.setRuleType(rules.getCompileMode() == null ? null : rules.getCompileMode().name());
+
+        RuleOutbox outbox = new RuleOutbox();
+        outbox.setMsgId(UUID.randomUUID().toString());
+        outbox.setRuleKey(rules.getRuleKey());
+        outbox.setRuleVersion(event.getRuleVersion());
+        try {
+            outbox.setPayload(objectMapper.writeValueAsString(event));
+        } catch (JsonProcessingException e) {
+            throw new RuleException("规则更新事件序列化失败: " + e.getMessage());
+        }
+        outbox.setCreateTime(LocalDateTime.now());
+        return ruleOutboxRepository.save(outbox);
+    }
+
+    /**
+     * 每次都从最早的待发布记录读起：自增ID在插入时分配、提交顺序可能不同，
+     * 按游标跳过已读ID会漏掉晚提交的小ID记录。退避中的记录到时间后才会读到
+     */
+    public List<RuleOutbox> findPending(int limit) {
+        return ruleOutboxRepository.findDue(MessageStatus.PROCESSING.getCode(), LocalDateTime.now(),
+                PageRequest.of(0, limit));
+    }
+
+    @Transactional
+    public void markStatus(Collection<Long> ids, MessageStatus status) {
+        if (!ids.isEmpty()) {
+            ruleOutboxRepository.updateStatusBatch(ids, status.getCode(), LocalDateTime.now());
+        }
+    }
+
+    @Transactional
+    public void incrementAttempts(Collection<Long> ids) {
+        if (!ids.isEmpty()) {
+            ruleOutboxRepository.incrementAttempts(ids);
+        }
+    }
+
+    /**
+     * 记录各自的下次发送时间
+     */
+    @Transactional
+    public void reschedule(Map<Long, LocalDateTime> nextAttemptTimes) {
+        nextAttemptTimes.forEach(ruleOutboxRepository::updateNextAttemptTime);
+    }
+
+    @Transactional
+    public int purgeSent(LocalDateTime before, int limit) {
+        return ruleOutboxRepository.deleteSentBefore(before, limit);
+    }
+
+    public RuleUpdateEvent readEvent(RuleOutbox outbox) {
+        try {
+            return objectMapper.readValue(outbox.getPayload(), RuleUpdateEvent.class);
+        } catch (JsonProcessingException e) {
+            throw new RuleException("规则更新事件反序列化失败: " + outbox.getMsgId());
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.wb.rules.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.wb.rules.common.enums.RuleCompileMode;
+import com.wb.rules.common.enums.RuleResultCode;
+import com.wb.rules.common.exceptions.RuleException;
+import com.wb.rules.entity.DroolsRules;
+import com.wb.rules.entity.Order;
+import com.wb.rules.event.RuleReloadedEvent;
+import com.wb.rules.repository.DroolsRulesRepository;
+import com.wb.rules.service.support.LoadedRule;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.kie.api.KieBase;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 规则流水线：把多个规则键按顺序编译进同一个KieBase，一次插入订单依次执行各阶段。
+ * 每个阶段的规则改写到独立的包和议程组（pipeline-stage-N），执行时按阶段顺序设置焦点；
+ * 规则自身声明了agenda-group的以规则自身为准。
+ * 合并后的KieBase按规则键列表缓存，任一组成规则重载后失效
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class RulePipelineService {
+
+    private static final Pattern PACKAGE = Pattern.compile("^\\s*package\\s+([\\w.]+)\\s*;?", Pattern.MULTILINE);
+
+    private final DroolsRulesRepository rulesRepository;
+    private final RuleCompileCache ruleCompileCache;
+    private final RuleMetrics ruleMetrics;
+
+    // 规则键 -> 重载次数，流水线构建时记录，不一致说明构建后组成规则发生过重载
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+    private Cache<String, CompositeRule> pipelines;
+
+    @Value("${app.rules.pipeline.max-stages:10}")
+    private int maxStages;
+
+    @Value("${app.rules.pipeline.max-size:200}")
+    private long maxSize;
+
+    @Value("${app.rules.pipeline.expire-after-access:PT6H}")
+    private Duration expireAfterAccess;
+
+    @Value("${app.rules.pool.max-idle:16}")
+    private int poolMaxIdle;
+
+    @Value("${app.rules.pool.min-idle:2}")
+    private int poolMinIdle;
+
+    @PostConstruct
+    public void init() {
+        pipelines = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterAccess(expireAfterAccess)
+                .removalListener((String key, CompositeRule composite, RemovalCause cause) -> {
+                    if (composite != null) {
+                        composite.loadedRule.retire();
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * 按顺序执行多个规则键，前一阶段对订单的修改对后一阶段可见
+     */
+    public Order executePipeline(List<String> ruleKeys, Order order) {
+        if (ruleKeys == null || ruleKeys.isEmpty()) {
+            throw new RuleException(RuleResultCode.PARAM_ERROR, "规则键列表不能为空");
+        }
+        if (ruleKeys.size() > maxStages) {
+            throw new RuleException(RuleResultCode.PARAM_ERROR, "流水线阶段数超过上限: " + maxStages);
+        }
+
+        LoadedRule loadedRule = getOrBuild(ruleKeys).loadedRule;
+        int firedRules = loadedRule.execute(kieSession -> {
+            // 焦点是栈结构，倒序压入使第一阶段最先执行
+            for (int stage = ruleKeys.size() - 1; stage >= 0; stage--) {
+                kieSession.getAgenda().getAgendaGroup(stageGroup(stage)).setFocus();
+            }
+            kieSession.insert(order);
+            return kieSession.fireAllRules();
+        }, ruleMetrics.listener(loadedRule.getRuleKey()));
+        log.debug("规则流水线执行完成：规则键={}, 触发数={}", ruleKeys, firedRules);
+        return order;
+    }
+
+    /**
+     * 组成规则重载或卸载后，包含它的流水线全部失效
+     */
+    @EventListener
+    public void onRuleReloaded(RuleReloadedEvent event) {
+        String ruleKey = event.getRuleKey();
+        generation(ruleKey).incrementAndGet();
+        pipelines.asMap().entrySet().removeIf(entry -> entry.getValue().versions.containsKey(ruleKey));
+    }
+
+    private CompositeRule getOrBuild(List<String> ruleKeys) {
+        String cacheKey = String.join(">", ruleKeys);
+        CompositeRule composite = pipelines.getIfPresent(cacheKey);
+        if (composite != null && !composite.isCurrent()) {
+            // 构建期间组成规则被重载，丢弃后重新构建
+            pipelines.asMap().remove(cacheKey, composite);
+        }
+        return pipelines.get(cacheKey, key -> build(key, ruleKeys));
+    }
+
+    private CompositeRule build(String cacheKey, List<String> ruleKeys) {
+        // 先记录重载次数再读取规则，读取后发生的重载会让本次结果失效
+        Map<String, Long> builtGenerations = new LinkedHashMap<>();
+        ruleKeys.forEach(ruleKey -> builtGenerations.put(ruleKey, generation(ruleKey).get()));
+
+        long start = System.currentTimeMillis();
+        Map<String, Integer> versions = new LinkedHashMap<>();
+        List<String> contents = new ArrayList<>(ruleKeys.size());
+        boolean executableModel = true;
+        for (int stage = 0; stage < ruleKeys.size(); stage++) {
+            String ruleKey = ruleKeys.get(stage);
+            DroolsRules rules = rulesRepository.findByRuleKeyAndStatusTrue(ruleKey)
+                    .orElseThrow(() -> new RuleException(RuleResultCode.NOT_FOUND, "规则不存在或已禁用" + ruleKey));
+            versions.put(ruleKey, rules.getVersion());
+            contents.add(toStage(rules.getRuleContent(), stage));
+            executableModel &= rules.getCompileMode() == RuleCompileMode.EXECUTABLE_MODEL;
+        }
+
+        KieBase kieBase = ruleCompileCache.compileComposite(contents,
+                executableModel ? RuleCompileMode.EXECUTABLE_MODEL : RuleCompileMode.DRL);
+        LoadedRule loadedRule = new LoadedRule("pipeline:" + cacheKey, null, kieBase, poolMaxIdle, poolMinIdle);
+        log.info("规则流水线编译完成：阶段={}, 耗时={}ms", versions, System.currentTimeMillis() - start);
+        return new CompositeRule(loadedRule, versions, builtGenerations);
+    }
+
+    /**
+     * 将规则内容改写为流水线的一个阶段：包名加阶段后缀避免不同阶段的规则名、函数名冲突，
+     * 并声明包级议程组
+     */
+    private static String toStage(String ruleContent, int stage) {
+        String agendaGroup = "agenda-group \"" + stageGroup(stage) + "\"\n";
+        Matcher matcher = PACKAGE.matcher(ruleContent);
+        if (matcher.find()) {
+            return ruleContent.substring(0, matcher.start())
+                    + "package " + matcher.group(1) + ".pipeline_stage" + stage + "\n"
+                    + agendaGroup
+                    + ruleContent.substring(matcher.end());
+        }
+        return "package pipeline_stage" + stage + "\n" + agendaGroup + ruleContent;
+    }
+
+    private static String stageGroup(int stage) {
+        return "pipeline-stage-" + stage;
+    }
+
+    private AtomicLong generation(String ruleKey) {
+        return generations.computeIfAbsent(ruleKey, key -> new AtomicLong());
+    }
+
+    private final class CompositeRule {
+        private final LoadedRule loadedRule;
+        private final Map<String, Integer> versions;       // 规则键 -> 构建时的版本
+        private final Map<String, Long> builtGenerations;
+
+        private CompositeRule(LoadedRule loadedRule, Map<String, Integer> versions, Map<String, Long> builtGenerations) {
+            this.loadedRule = loadedRule;
+            this.versions = versions;
+            this.builtGenerations = builtGenerations;
+        }
+
+        private boolean isCurrent() {
+            return builtGenerations.entrySet().stream()
+                    .allMatch(entry -> generation(entry.getKey()).get() == entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.wb.rules.service;
+
+import com.wb.rules.dto.RulePropagationStatus;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 记录各节点应用规则版本的时间：每个节点在Redis哈希 rule_update_applied:{ruleKey}:{version} 中写入
+ * “应用时间,距发布耗时”，汇总后即可得到一次变更传播到整个集群的耗时（指标 rules.update.propagation）
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class RulePropagationTracker {
+
+    private static final String APPLIED_KEY_PREFIX = "rule_update_applied:";
+
+    private final StringRedisTemplate redisTemplate;
+    private final MeterRegistry meterRegistry;
+
+    // 为空时使用 主机名:进程号
+    @Value("${app.mq.broadcast.node-id:}")
+    private String nodeId;
+
+    public String getNodeId() {
+        if (nodeId == null || nodeId.isBlank()) {
+            nodeId = resolveNodeId();
+        }
+        return nodeId;
+    }
+
+    /**
+     * 记录本节点已应用规则版本，publishedAt为空时只记录应用时间
+     */
+    public void recordApplied(String ruleKey, String ruleVersion, Long publishedAt) {
+        long appliedAt = System.currentTimeMillis();
+        long latency = publishedAt == null ? -1 : Math.max(0, appliedAt - publishedAt);
+        if (latency >= 0) {
+            Timer.builder("rules.update.propagation")
+                    .description("规则更新从发布到本节点应用完成的耗时")
+                    .tag("ruleKey", ruleKey)
+                    // 每个规则键只保留几个传播耗时分桶，不发布完整直方图
+                    .serviceLevelObjectives(Duration.ofMillis(100), Duration.ofMillis(500), Duration.ofSeconds(1),
+                            Duration.ofSeconds(5), Duration.ofSeconds(30))
+                    .register(meterRegistry)
+                    .record(latency, TimeUnit.MILLISECONDS);
+        }
+        try {
+            String redisKey = appliedKey(ruleKey, ruleVersion);
+            redisTemplate.opsForHash().put(redisKey, getNodeId(), appliedAt + "," + latency);
+            redisTemplate.expire(redisKey, 24, TimeUnit.HOURS);
+        } catch (Exception e) {
+            log.warn("记录规则应用状态失败：规则键={}, 版本={}", ruleKey, ruleVersion, e);
+        }
+        log.info("节点已应用规则版本：节点={}, 规则键={}, 版本={}, 距发布={}ms", getNodeId(), ruleKey, ruleVersion, latency);
+    }
+
+    public RulePropagationStatus getStatus(String ruleKey, String ruleVersion) {
+        Map<Object, Object> entries = redisTemplate.opsForHash().entries(appliedKey(ruleKey, ruleVersion));
+        List<RulePropagationStatus.NodeApplied> nodes = new ArrayList<>();
+        long maxLatency = 0;
+        for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+            String[] values = entry.getValue().toString().split(",");
+            long latency = Long.parseLong(values[1]);
+            nodes.add(new RulePropagationStatus.NodeApplied(entry.getKey().toString(), Long.parseLong(values[0]), latency));
+            maxLatency = Math.max(maxLatency, latency);
+        }
+        nodes.sort(Comparator.comparingLong(RulePropagationStatus.NodeApplied::getAppliedAt));
+        return new RulePropagationStatus(ruleKey, ruleVersion, nodes.size(), maxLatency, nodes);
+    }
+
+    private static String appliedKey(String ruleKey, String ruleVersion) {
+        return APPLIED_KEY_PREFIX + ruleKey + ":" + ruleVersion;
+    }
+
+    private static String resolveNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "unknown";
+        }
+        return host + ":" + ProcessHandle.current().pid();
+    }
+}
@@ -0,0 +1,218 @@
+package com.wb.rules.service;
+
+import com.wb.rules.common.enums.RuleCompileMode;
+import com.wb.rules.common.enums.RuleResultCode;
+import com.wb.rules.common.exceptions.RuleException;
+import com.wb.rules.dto.ShadowDiff;
+import com.wb.rules.dto.ShadowStats;
+import com.wb.rules.entity.Order;
+import com.wb.rules.service.support.LoadedRule;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.kie.api.KieBase;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 影子执行：按采样率把线上订单的副本交给候选版本规则执行，与线上结果比较score、amount、message。
+ * 候选版本在独立的有界线程池中执行，线程池满时直接丢弃样本，不影响请求线程
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class RuleShadowService {
+
+    private final RuleCompileCache ruleCompileCache;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, Shadow> shadows = new ConcurrentHashMap<>();
+    private ThreadPoolExecutor executor;
+
+    @Value("${app.rules.shadow.threads:2}")
+    private int threads;
+
+    @Value("${app.rules.shadow.queue-capacity:1000}")
+    private int queueCapacity;
+
+    @Value("${app.rules.shadow.max-diffs:100}")
+    private int maxDiffs;
+
+    @Value("${app.rules.pool.max-idle:16}")
+    private int poolMaxIdle;
+
+    @PostConstruct
+    public void init() {
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("rule-shadow-"),
+                (task, pool) -> ((ShadowTask) task).shadow.dropped.incrementAndGet());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 开启影子执行，候选版本替换已有的候选版本
+     */
+    public void start(String ruleKey, String candidateContent, RuleCompileMode compileMode, double sampleRate) {
+        if (sampleRate <= 0 || sampleRate > 1) {
+            throw new RuleException(RuleResultCode.PARAM_ERROR, "采样率应在(0, 1]之间");
+        }
+        KieBase kieBase = ruleCompileCache.acquire(bindingKey(ruleKey), candidateContent, compileMode);
+        LoadedRule candidate = new LoadedRule(ruleKey, null, kieBase, poolMaxIdle, 0);
+        Timer latency = Timer.builder("rules.shadow.latency")
+                .description("影子执行候选版本的耗时")
+                .tag("ruleKey", ruleKey)
+                .register(meterRegistry);
+        Shadow previous = shadows.put(ruleKey, new Shadow(ruleKey, candidate, sampleRate, latency));
+        if (previous != null) {
+            previous.candidate.retire();
+        }
+        log.info("开启影子执行：规则键={}, 采样率={}", ruleKey, sampleRate);
+    }
+
+    public void stop(String ruleKey) {
+        Shadow shadow = shadows.remove(ruleKey);
+        if (shadow != null) {
+            ruleCompileCache.release(bindingKey(ruleKey));
+            shadow.candidate.retire();
+            log.info("关闭影子执行：规则键={}", ruleKey);
+        }
+    }
+
+    /**
+     * 在线上执行前决定是否采样，命中时返回订单副本，否则返回null
+     */
+    public Order sample(String ruleKey, Order order) {
+        Shadow shadow = shadows.get(ruleKey);
+        if (shadow == null || ThreadLocalRandom.current().nextDouble() >= shadow.sampleRate) {
+            return null;
+        }
+        return copy(order);
+    }
+
+    /**
+     * 线上执行完成后提交影子执行，线上结果在提交时取值，之后的修改不影响比较
+     */
+    public void submit(String ruleKey, Order sampledCopy, Order liveResult) {
+        Shadow shadow = shadows.get(ruleKey);
+        if (shadow == null || sampledCopy == null) {
+            return;
+        }
+        shadow.sampled.incrementAndGet();
+        executor.execute(new ShadowTask(shadow, sampledCopy, copy(liveResult)));
+    }
+
+    public Map<String, ShadowStats> getStats() {
+        Map<String, ShadowStats> stats = new TreeMap<>();
+        shadows.forEach((ruleKey, shadow) -> stats.put(ruleKey, shadow.stats()));
+        return stats;
+    }
+
+    private static String bindingKey(String ruleKey) {
+        return "shadow:" + ruleKey;
+    }
+
+    private static Order copy(Order order) {
+        Order copy = new Order();
+        copy.setId(order.getId());
+        copy.setAmount(order.getAmount());
+        copy.setScore(order.getScore());
+        copy.setMessage(order.getMessage());
+        copy.setCreateTime(order.getCreateTime());
+        return copy;
+    }
+
+    private final class Shadow {
+        private final String ruleKey;
+        private final LoadedRule candidate;
+        private final double sampleRate;
+        private final Timer latency;
+        private final AtomicLong sampled = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong compared = new AtomicLong();
+        private final AtomicLong mismatched = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final Deque<ShadowDiff> recentDiffs = new ArrayDeque<>(); // 由自身锁保护
+
+        private Shadow(String ruleKey, LoadedRule candidate, double sampleRate, Timer latency) {
+            this.ruleKey = ruleKey;
+            this.candidate = candidate;
+            this.sampleRate = sampleRate;
+            this.latency = latency;
+        }
+
+        private void recordDiff(ShadowDiff diff) {
+            synchronized (recentDiffs) {
+                recentDiffs.addFirst(diff);
+                while (recentDiffs.size() > maxDiffs) {
+                    recentDiffs.removeLast();
+                }
+            }
+        }
+
+        private ShadowStats stats() {
+            synchronized (recentDiffs) {
+                return new ShadowStats(ruleKey, sampleRate, sampled.get(), dropped.get(), compared.get(),
+                        mismatched.get(), failed.get(), new ArrayList<>(recentDiffs));
+            }
+        }
+    }
+
+    private static final class ShadowTask implements Runnable {
+        private final Shadow shadow;
+        private final Order order;
+        private final Order live;
+
+        private ShadowTask(Shadow shadow, Order order, Order live) {
+            this.shadow = shadow;
+            this.order = order;
+            this.live = live;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            try {
+                shadow.candidate.execute(kieSession -> {
+                    kieSession.insert(order);
+                    return kieSession.fireAllRules();
+                });
+                shadow.latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                shadow.compared.incrementAndGet();
+                if (!Objects.equals(live.getScore(), order.getScore())
+                        || !Objects.equals(live.getAmount(), order.getAmount())
+                        || !Objects.equals(live.getMessage(), order.getMessage())) {
+                    shadow.mismatched.incrementAndGet();
+                    shadow.recordDiff(new ShadowDiff(live.getId(), live.getScore(), order.getScore(),
+                            live.getAmount(), order.getAmount(), live.getMessage(), order.getMessage(),
+                            null, LocalDateTime.now()));
+                }
+            } catch (Exception e) {
+                shadow.failed.incrementAndGet();
+                shadow.recordDiff(new ShadowDiff(live.getId(), live.getScore(), null, live.getAmount(), null,
+                        live.getMessage(), null, e.getMessage(), LocalDateTime.now()));
+            }
+        }
+    }
+}
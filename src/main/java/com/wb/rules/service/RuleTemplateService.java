@@ -0,0 +1,143 @@
+package com.wb.rules.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.wb.rules.common.enums.RuleResultCode;
+import com.wb.rules.common.exceptions.RuleException;
+import com.wb.rules.common.utils.HashUtils;
+import com.wb.rules.entity.DroolsRules;
+import com.wb.rules.entity.RuleTemplateParam;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.drools.template.ObjectDataCompiler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 规则模板展开：.drt模板加参数行生成DRL
+ * 每个参数行单独展开并按“模板版本+模板哈希+参数行哈希”缓存，参数行变化时只重新展开变化的行，
+ * 模板头（package、import等）只展开一次，生成结果为模板头加各行规则按参数行顺序拼接。
+ * 单独展开时Drools的@{row.rowNumber}总是0，展开前替换为该行在全部参数行中的序号（从0开始，与整体展开一致），
+ * 引用了行号的模板缓存键同时包含序号，插入或删除参数行后序号变化的行会重新展开。
+ * 除header列外，每行还提供@{rowKey}（参数行标识，同一规则键下唯一），可代替行号保证规则名唯一且不随行的增删变化
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class RuleTemplateService {
+
+    private static final TypeReference<LinkedHashMap<String, Object>> ROW_TYPE = new TypeReference<>() {
+    };
+    // 模板中的@{...}表达式，以及其中对行号的引用
+    private static final Pattern EXPRESSION = Pattern.compile("@\\{[^}]*}");
+    private static final Pattern ROW_NUMBER = Pattern.compile("\\brow\\.rowNumber\\b");
+
+    private final ObjectMapper objectMapper;
+
+    // 模板键 -> 模板头，模板键 + 参数行哈希 -> 该行展开的规则
+    private Cache<String, String> headers;
+    private Cache<String, String> expansions;
+
+    @Value("${app.rules.template.cache-size:10000}")
+    private long cacheSize;
+
+    @PostConstruct
+    public void init() {
+        headers = Caffeine.newBuilder().maximumSize(Math.max(1, cacheSize / 100)).build();
+        expansions = Caffeine.newBuilder().maximumSize(cacheSize).recordStats().build();
+    }
+
+    /**
+     * 用模板和参数行生成完整DRL
+     */
+    public String generate(DroolsRules rules, Collection<RuleTemplateParam> params) {
+        String template = rules.getTemplateContent();
+        if (template == null || template.isBlank()) {
+            throw new RuleException(RuleResultCode.PARAM_ERROR, "规则未配置模板: " + rules.getRuleKey());
+        }
+        String templateKey = "v" + rules.getTemplateVersion() + ":" + HashUtils.sha256(template);
+        String header = headers.get(templateKey, key -> expand(template, List.of()));
+
+        boolean numbered = usesRowNumber(template);
+        long start = System.currentTimeMillis();
+        long missesBefore = expansions.stats().missCount();
+        StringBuilder drl = new StringBuilder(header);
+        int rowNumber = 0;
+        for (RuleTemplateParam param : params) {
+            int index = rowNumber++;
+            String rowKey = templateKey + ":" + (numbered ? index + ":" : "")
+                    + HashUtils.sha256(param.getRowKey() + "\n" + param.getParams());
+            drl.append(expansions.get(rowKey, key ->
+                    expandRow(numbered ? withRowNumber(template, index) : template, header, param)));
+        }
+        log.info("规则模板展开完成：规则键={}, 参数行={}, 重新展开={}, 耗时={}ms", rules.getRuleKey(), params.size(),
+                expansions.stats().missCount() - missesBefore, System.currentTimeMillis() - start);
+        return drl.toString();
+    }
+
+    /**
+     * 展开单个参数行，去掉与模板头相同的前缀，只保留该行生成的规则
+     */
+    private String expandRow(String template, String header, RuleTemplateParam param) {
+        String expanded = expand(template, List.of(toRow(param)));
+        if (!expanded.startsWith(header)) {
+            throw new RuleException("规则模板展开失败：参数行" + param.getRowKey() + "改变了模板头");
+        }
+        return expanded.substring(header.length());
+    }
+
+    private static boolean usesRowNumber(String template) {
+        Matcher expressions = EXPRESSION.matcher(template);
+        while (expressions.find()) {
+            if (ROW_NUMBER.matcher(expressions.group()).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 把@{...}表达式中的row.rowNumber替换为行号常量，表达式其余部分仍由模板引擎求值
+     */
+    private static String withRowNumber(String template, int rowNumber) {
+        return EXPRESSION.matcher(template).replaceAll(expression -> Matcher.quoteReplacement(
+                ROW_NUMBER.matcher(expression.group()).replaceAll(String.valueOf(rowNumber))));
+    }
+
+    /**
+     * 参数行JSON转为模板行，并提供@{rowKey}
+     */
+    private Map<String, Object> toRow(RuleTemplateParam param) {
+        try {
+            Map<String, Object> row = param.getParams() == null || param.getParams().isBlank()
+                    ? new LinkedHashMap<>()
+                    : objectMapper.readValue(param.getParams(), ROW_TYPE);
+            row.putIfAbsent("rowKey", param.getRowKey());
+            return row;
+        } catch (JsonProcessingException e) {
+            throw new RuleException(RuleResultCode.PARAM_ERROR, "参数行格式错误: " + param.getRowKey());
+        }
+    }
+
+    private static String expand(String template, List<Map<String, Object>> rows) {
+        try {
+            return new ObjectDataCompiler().compile(rows,
+                    new ByteArrayInputStream(template.getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            throw new RuleException("规则模板展开失败: " + e.getMessage());
+        }
+    }
+}
@@ -1,59 +1,75 @@
 package com.wb.rules.service.impl;
 
+import com.wb.rules.common.enums.RuleCompileMode;
+import com.wb.rules.common.enums.RuleResultCode;
 import com.wb.rules.common.exceptions.RuleException;
+import com.wb.rules.dto.RuleVersionStatus;
+import com.wb.rules.service.RuleCompileCache;
 import com.wb.rules.service.RuleEngineService;
+import com.wb.rules.service.support.LoadedRule;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.kie.api.KieServices;
-import org.kie.api.builder.*;
-import org.kie.api.runtime.KieContainer;
-import org.kie.api.runtime.KieSession;
+import org.kie.api.KieBase;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * 多版本规则引擎：每个规则键保留最近N个版本，每个版本一个不可变的KieBase，
+ * 每次执行从该版本的会话池借用独立会话，并发调用互不影响。
+ * 支持正式版本与灰度版本按权重分流，按版本统计执行耗时（指标 rules.engine.execute）
+ */
 @Service
 @Slf4j
 @RequiredArgsConstructor
 public class RuleEngineServiceImpl implements RuleEngineService {
     private final StringRedisTemplate redisTemplate;
+    private final RuleCompileCache ruleCompileCache;
+    private final MeterRegistry meterRegistry;
 
-    //使用ConcurrentHashMap存储不同版本的KieSession
-    private final Map<String, KieSession> kieSessionMap = new ConcurrentHashMap<>();
-    private final Map<String, KieContainer> kieContainerMap = new ConcurrentHashMap<>();
+    // 规则键 -> 各版本
+    private final Map<String, VersionedRule> versionedRules = new ConcurrentHashMap<>();
 
-    @Override
-    public void loadRule(String ruleContent, String ruleVersion, String ruleKey) {
-        String sessionKey = buildSessionKey(ruleKey, ruleVersion);
-        try {
-            KieServices kieServices = KieServices.Factory.get();
-            KieFileSystem kfs = kieServices.newKieFileSystem();
-            //todo 从数据库重新加载
+    @Value("${app.rules.engine.max-versions:3}")
+    private int maxVersions;
 
-            KieBuilder kieBuilder = kieServices.newKieBuilder(kfs).buildAll();
-            Results results = kieBuilder.getResults();
-
-            if (results.hasMessages(Message.Level.ERROR)) {
-                log.error("规则编译错误：{}", results.getMessages());
-                throw new RuleException("规则加载失败");
-            }
+    // 加载新版本后是否直接设为正式版本
+    @Value("${app.rules.engine.auto-activate:true}")
+    private boolean autoActivate;
 
-            //释放旧的KieSession
-            disposeOldSession(sessionKey);
+    @Value("${app.rules.pool.max-idle:16}")
+    private int poolMaxIdle;
 
-            // 创建新的KieContainer和KieSession
-            KieRepository repository = kieServices.getRepository();
-            repository.addKieModule(repository::getDefaultReleaseId);
-            KieContainer kieContainer = kieServices.newKieContainer(repository.getDefaultReleaseId());
-            KieSession kieSession = kieContainer.newKieSession();
+    @Value("${app.rules.pool.min-idle:2}")
+    private int poolMinIdle;
 
-            //缓存新的KieSession和KieContainer
-            kieSessionMap.put(sessionKey, kieSession);
-            kieContainerMap.put(sessionKey, kieContainer);
+    @Override
+    public void loadRule(String ruleContent, String ruleVersion, String ruleKey) {
+        try {
+            // 同一内容的KieBase在编译缓存中共享，各版本以独立的绑定键引用
+            KieBase kieBase = ruleCompileCache.acquire(bindingKey(ruleKey, ruleVersion), ruleContent, RuleCompileMode.DRL);
+            LoadedRule loadedRule = new LoadedRule(ruleKey, null, kieBase, poolMaxIdle, poolMinIdle);
+            Timer timer = Timer.builder("rules.engine.execute")
+                    .description("按版本统计的规则执行耗时")
+                    .tag("ruleKey", ruleKey)
+                    .tag("version", ruleVersion)
+                    // 规则键和版本数可能很多，只保留几个耗时分桶用于对比灰度版本
+                    .serviceLevelObjectives(Duration.ofMillis(1), Duration.ofMillis(5), Duration.ofMillis(20),
+                            Duration.ofMillis(100))
+                    .register(meterRegistry);
+            versionedRules.computeIfAbsent(ruleKey, VersionedRule::new)
+                    .add(ruleVersion, new VersionEntry(ruleVersion, loadedRule, timer));
 
             //将规则内容缓存到Redis
             cacheRuleToRedis(ruleContent, ruleVersion, ruleKey);
@@ -71,47 +87,35 @@ public class RuleEngineServiceImpl implements RuleEngineService {
         redisTemplate.expire(redisKey, 24, TimeUnit.HOURS);
     }
 
-    private void disposeOldSession(String sessionKey) {
-        KieSession oldKieSession = kieSessionMap.remove(sessionKey);
-        KieContainer oldKieContainer = kieContainerMap.remove(sessionKey);
-        if (oldKieContainer != null) {
-            try {
-                oldKieContainer.dispose();
-            }catch (Exception e){
-                log.warn("释放旧的KieContainer失败", e);
-            }
-        }
-        if (oldKieSession != null) {
-            try {
-                oldKieSession.dispose();
-            }catch (Exception e){
-                log.warn("释放旧的oldKieSession失败", e);
-            }
-        }
+    private static String bindingKey(String ruleKey, String ruleVersion) {
+        return "engine:" + ruleKey + ":" + ruleVersion;
     }
 
-    private String buildSessionKey(String ruleKey, String ruleVersion) {
-        return ruleKey + ":" + ruleVersion;
+    @Override
+    public void executeRule(Object fact, String ruleVersion, String ruleKey) {
+        execute(versioned(ruleKey).get(ruleVersion), fact);
     }
 
     @Override
-    public void executeRule(Object fact, String ruleVersion, String ruleKey) {
-        String sessionKey  = buildSessionKey(ruleKey, ruleVersion);
-        KieSession kieSession = kieSessionMap.get(sessionKey);
+    public String executeRule(Object fact, String ruleKey) {
+        VersionEntry entry = versioned(ruleKey).route();
+        execute(entry, fact);
+        return entry.version;
+    }
 
-        if (Objects.nonNull(kieSession)) {
-            try {
+    private void execute(VersionEntry entry, Object fact) {
+        long start = System.nanoTime();
+        try {
+            int firedRules = entry.loadedRule.execute(kieSession -> {
                 kieSession.insert(fact);
-                int firedRules = kieSession.fireAllRules();
-                log.debug("规则执行完成，触发规则数量：{}", firedRules);
-            }catch (Exception e){
-                log.error("规则执行失败", e);
-                throw new RuntimeException("规则执行失败", e);
-            }finally {
-                kieSession.dispose();
-            }
-        } else {
-            log.warn("未找到对应的规则会话，版本: {}, 租户: {}", ruleVersion, ruleKey);
+                return kieSession.fireAllRules();
+            });
+            log.debug("规则执行完成，版本: {}, 触发规则数量：{}", entry.version, firedRules);
+        } catch (RuntimeException e) {
+            log.error("规则执行失败", e);
+            throw new RuntimeException("规则执行失败", e);
+        } finally {
+            entry.timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         }
     }
 
@@ -120,4 +124,165 @@ public class RuleEngineServiceImpl implements RuleEngineService {
         String redisKey = "drools_rules:" + ruleKey;
         return (String) redisTemplate.opsForHash().get(redisKey, ruleVersion);
     }
+
+    @Override
+    public void activate(String ruleKey, String ruleVersion) {
+        versioned(ruleKey).activate(ruleVersion);
+        log.info("正式版本切换，租户: {}, 版本: {}", ruleKey, ruleVersion);
+    }
+
+    @Override
+    public void setCanary(String ruleKey, String ruleVersion, int percent) {
+        if (percent < 0 || percent > 100) {
+            throw new RuleException(RuleResultCode.PARAM_ERROR, "灰度流量百分比应在0-100之间");
+        }
+        versioned(ruleKey).setCanary(ruleVersion, percent);
+        log.info("灰度版本设置，租户: {}, 版本: {}, 流量: {}%", ruleKey, ruleVersion, percent);
+    }
+
+    @Override
+    public RuleVersionStatus getVersionStatus(String ruleKey) {
+        return versioned(ruleKey).status();
+    }
+
+    private VersionedRule versioned(String ruleKey) {
+        VersionedRule versionedRule = versionedRules.get(ruleKey);
+        if (versionedRule == null) {
+            throw new RuleException(RuleResultCode.NOT_FOUND, "未加载规则: " + ruleKey);
+        }
+        return versionedRule;
+    }
+
+    /**
+     * 路由配置整体替换，执行时读取一次即可得到一致的正式/灰度组合
+     */
+    private static final class Routing {
+        private final VersionEntry active;
+        private final VersionEntry canary;
+        private final int canaryPercent;
+
+        private Routing(VersionEntry active, VersionEntry canary, int canaryPercent) {
+            this.active = active;
+            this.canary = canary;
+            this.canaryPercent = canaryPercent;
+        }
+    }
+
+    private static final class VersionEntry {
+        private final String version;
+        private final LoadedRule loadedRule;
+        private final Timer timer;
+
+        private VersionEntry(String version, LoadedRule loadedRule, Timer timer) {
+            this.version = version;
+            this.loadedRule = loadedRule;
+            this.timer = timer;
+        }
+    }
+
+    /**
+     * 单个规则键的各版本，写操作由对象锁保护，执行路径只读volatile的路由配置
+     */
+    private final class VersionedRule {
+        private final String ruleKey;
+        private final Map<String, VersionEntry> versions = new LinkedHashMap<>(); // 按加载顺序
+        private volatile Routing routing = new Routing(null, null, 0);
+
+        private VersionedRule(String ruleKey) {
+            this.ruleKey = ruleKey;
+        }
+
+        private VersionEntry route() {
+            Routing current = routing;
+            if (current.canary != null && ThreadLocalRandom.current().nextInt(100) < current.canaryPercent) {
+                return current.canary;
+            }
+            if (current.active == null) {
+                throw new RuleException(RuleResultCode.NOT_FOUND, "规则未设置正式版本: " + ruleKey);
+            }
+            return current.active;
+        }
+
+        private synchronized VersionEntry get(String version) {
+            VersionEntry entry = versions.get(version);
+            if (entry == null) {
+                throw new RuleException(RuleResultCode.NOT_FOUND, "规则版本未加载: " + ruleKey + ":" + version);
+            }
+            return entry;
+        }
+
+        private synchronized void add(String version, VersionEntry entry) {
+            VersionEntry previous = versions.remove(version);
+            versions.put(version, entry);
+            Routing current = routing;
+            VersionEntry active = autoActivate || current.active == null ? entry : replaced(current.active, entry);
+            VersionEntry canary = replaced(current.canary, entry);
+            // 新版本成为正式版本时，与其相同的灰度版本不再需要
+            if (canary != null && canary == active) {
+                routing = new Routing(active, null, 0);
+            } else {
+                routing = new Routing(active, canary, current.canaryPercent);
+            }
+            if (previous != null) {
+                retire(previous);
+            }
+            evictOldVersions();
+        }
+
+        private synchronized void activate(String version) {
+            VersionEntry entry = get(version);
+            Routing current = routing;
+            routing = current.canary == entry
+                    ? new Routing(entry, null, 0)
+                    : new Routing(entry, current.canary, current.canaryPercent);
+        }
+
+        private synchronized void setCanary(String version, int percent) {
+            Routing current = routing;
+            if (percent == 0) {
+                routing = new Routing(current.active, null, 0);
+                return;
+            }
+            routing = new Routing(current.active, get(version), percent);
+        }
+
+        private synchronized RuleVersionStatus status() {
+            Routing current = routing;
+            return new RuleVersionStatus(ruleKey,
+                    current.active == null ? null : current.active.version,
+                    current.canary == null ? null : current.canary.version,
+                    current.canaryPercent, new ArrayList<>(versions.keySet()));
+        }
+
+        /**
+         * 超出保留数量时按加载顺序淘汰，正式和灰度版本不淘汰
+         */
+        private void evictOldVersions() {
+            Routing current = routing;
+            Iterator<VersionEntry> iterator = versions.values().iterator();
+            while (versions.size() > Math.max(1, maxVersions) && iterator.hasNext()) {
+                VersionEntry entry = iterator.next();
+                if (entry != current.active && entry != current.canary) {
+                    iterator.remove();
+                    retire(entry);
+                    log.info("淘汰规则版本，租户: {}, 版本: {}", ruleKey, entry.version);
+                }
+            }
+        }
+
+        private VersionEntry replaced(VersionEntry routed, VersionEntry entry) {
+            return routed != null && routed.version.equals(entry.version) ? entry : routed;
+        }
+
+        /**
+         * 同一版本重新加载时绑定键和计时器已由新条目沿用，只退役旧的会话池
+         */
+        private void retire(VersionEntry entry) {
+            entry.loadedRule.retire();
+            if (!versions.containsKey(entry.version)) {
+                ruleCompileCache.release(bindingKey(ruleKey, entry.version));
+                meterRegistry.remove(entry.timer);
+            }
+        }
+    }
 }
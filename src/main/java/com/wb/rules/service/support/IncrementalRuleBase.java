@@ -0,0 +1,239 @@
+package com.wb.rules.service.support;
+
+import com.wb.rules.common.exceptions.RuleException;
+import com.wb.rules.common.utils.HashUtils;
+import com.wb.rules.dto.RuleUpdateReport;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.drools.compiler.kie.builder.impl.InternalKieBuilder;
+import org.kie.api.KieBase;
+import org.kie.api.KieServices;
+import org.kie.api.builder.KieBuilder;
+import org.kie.api.builder.KieFileSystem;
+import org.kie.api.builder.Message;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.builder.Results;
+import org.kie.api.runtime.KieContainer;
+import org.kie.internal.builder.IncrementalResults;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 支持增量更新的KieBase，由单个规则键独占（仅DRL编译模式）
+ * DRL按规则拆成独立文件（非规则部分单独一个文件，拆分见ParsedDrl），更新时只重新编译内容变化的文件，
+ * 再由编译结果创建新的KieContainer和KieBase：已发布的KieBase不会被修改，旧版本在替换前继续服务，
+ * 编译或构建失败时旧版本不受影响
+ */
+@Slf4j
+public class IncrementalRuleBase {
+
+    // 模块序号：同一规则键重新完整编译时新旧模块的ReleaseId不同，关闭旧模块不会移除新模块
+    private static final AtomicLong MODULE_SEQUENCE = new AtomicLong();
+
+    private final String ruleKey;
+    private final KieServices kieServices;
+    private final ReleaseId releaseId;
+    private final String basePath;
+    private final KieFileSystem kieFileSystem;
+    private final KieBuilder kieBuilder;
+    // 最近一次构建的KieBase，每次更新替换为新实例
+    @Getter
+    private volatile KieBase kieBase;
+
+    // KieFileSystem中当前的文件，与已应用的内容一致
+    private Map<String, String> files;
+    // 已应用到KieBase的内容
+    private ParsedDrl applied;
+    private String appliedHash;
+
+    private IncrementalRuleBase(String ruleKey, ParsedDrl parsed, String contentHash) {
+        this.ruleKey = ruleKey;
+        this.kieServices = KieServices.Factory.get();
+        String artifactId = "rule-" + HashUtils.sha256(ruleKey).substring(0, 16) + "-" + MODULE_SEQUENCE.incrementAndGet();
+        this.releaseId = kieServices.newReleaseId("com.wb.rules.incremental", artifactId, "1.0.0");
+        this.basePath = "src/main/resources/rules/" + artifactId + "/";
+        this.kieFileSystem = kieServices.newKieFileSystem();
+        kieFileSystem.generateAndWritePomXML(releaseId);
+        this.files = toFiles(parsed);
+        files.forEach(kieFileSystem::write);
+
+        this.kieBuilder = kieServices.newKieBuilder(kieFileSystem).buildAll();
+        Results results = kieBuilder.getResults();
+        if (results.hasMessages(Message.Level.ERROR)) {
+            kieServices.getRepository().removeKieModule(releaseId);
+            throw new RuleException("规则语法错误: " + results.getMessages());
+        }
+        this.kieBase = newKieBase();
+        this.applied = parsed;
+        this.appliedHash = contentHash;
+    }
+
+    /**
+     * 完整编译规则内容，之后的更新走增量编译
+     */
+    public static IncrementalRuleBase create(String ruleKey, String ruleContent) {
+        return new IncrementalRuleBase(ruleKey, ParsedDrl.parse(ruleContent), HashUtils.sha256(ruleContent));
+    }
+
+    /**
+     * 统计规则内容中的规则数，用于判断是否值得走增量编译
+     */
+    public static int countRules(String ruleContent) {
+        return ParsedDrl.parse(ruleContent).rules.size();
+    }
+
+    public RuleUpdateReport fullBuildReport(long millis) {
+        return new RuleUpdateReport(ruleKey, false, applied.rules.size(), applied.rules.size(), 0, 0, true, millis);
+    }
+
+    /**
+     * 保存前的语法校验，不修改已应用的模块：非规则部分和变化的规则单独编译一次，
+     * 非规则部分变化时所有规则都可能受影响，全部编译。删除规则不会引入错误，不参与校验
+     */
+    public void validate(String ruleContent) {
+        ParsedDrl parsed = ParsedDrl.parse(ruleContent);
+        Map<String, String> newFiles = toFiles(parsed);
+        Map<String, String> current;
+        synchronized (this) {
+            current = files;
+        }
+        String headerPath = basePath + "header.drl";
+        Map<String, String> checked = new LinkedHashMap<>();
+        boolean headerChanged = !newFiles.get(headerPath).equals(current.get(headerPath));
+        newFiles.forEach((path, text) -> {
+            if (headerChanged || path.equals(headerPath) || !text.equals(current.get(path))) {
+                checked.put(path, text);
+            }
+        });
+        if (checked.size() == 1 && !headerChanged) {
+            return;
+        }
+
+        ReleaseId scratchId = kieServices.newReleaseId("com.wb.rules.incremental",
+                releaseId.getArtifactId() + "-validate-" + UUID.randomUUID(), "1.0.0");
+        KieFileSystem scratch = kieServices.newKieFileSystem();
+        scratch.generateAndWritePomXML(scratchId);
+        checked.forEach(scratch::write);
+        Results results = kieServices.newKieBuilder(scratch).buildAll().getResults();
+        kieServices.getRepository().removeKieModule(scratchId);
+        if (results.hasMessages(Message.Level.ERROR)) {
+            throw new RuleException("规则语法错误: " + results.getMessages());
+        }
+    }
+
+    /**
+     * 增量编译变化的文件，编译失败时恢复原文件
+     */
+    private void apply(Map<String, String> newFiles) {
+        List<String> changedPaths = new ArrayList<>();
+        newFiles.forEach((path, text) -> {
+            if (!text.equals(files.get(path))) {
+                changedPaths.add(path);
+            }
+        });
+        files.keySet().stream().filter(path -> !newFiles.containsKey(path)).forEach(changedPaths::add);
+        if (changedPaths.isEmpty()) {
+            return;
+        }
+
+        writeFiles(newFiles, changedPaths);
+        IncrementalResults results = build(changedPaths);
+        if (results.getAddedMessages().stream().anyMatch(message -> message.getLevel() == Message.Level.ERROR)) {
+            String errorMsg = results.getAddedMessages().toString();
+            // 恢复到上一次编译通过的文件
+            writeFiles(files, changedPaths);
+            build(changedPaths);
+            throw new RuleException("规则语法错误: " + errorMsg);
+        }
+        files = newFiles;
+    }
+
+    /**
+     * 增量编译并构建新的KieBase，返回规则增删改数量。未变化规则的编译结果直接复用
+     */
+    public synchronized RuleUpdateReport update(String ruleContent) {
+        long start = System.currentTimeMillis();
+        String contentHash = HashUtils.sha256(ruleContent);
+        ParsedDrl parsed = ParsedDrl.parse(ruleContent);
+        if (contentHash.equals(appliedHash)) {
+            return new RuleUpdateReport(ruleKey, true, parsed.rules.size(), 0, 0, 0, false, 0);
+        }
+        apply(toFiles(parsed));
+        KieBase newBase;
+        try {
+            newBase = newKieBase();
+        } catch (RuntimeException e) {
+            throw new RuleException("规则增量更新失败: " + e.getMessage());
+        }
+
+        int added = 0;
+        int changed = 0;
+        for (Map.Entry<String, String> rule : parsed.rules.entrySet()) {
+            String oldText = applied.rules.get(rule.getKey());
+            if (oldText == null) {
+                added++;
+            } else if (!oldText.equals(rule.getValue())) {
+                changed++;
+            }
+        }
+        Set<String> removedRules = new HashSet<>(applied.rules.keySet());
+        removedRules.removeAll(parsed.rules.keySet());
+        boolean headerChanged = !applied.header.equals(parsed.header);
+        kieBase = newBase;
+        applied = parsed;
+        appliedHash = contentHash;
+
+        RuleUpdateReport report = new RuleUpdateReport(ruleKey, true, parsed.rules.size(), added, removedRules.size(),
+                changed, headerChanged, System.currentTimeMillis() - start);
+        log.info("规则增量更新完成：{}", report);
+        return report;
+    }
+
+    /**
+     * 不再使用时从全局仓库移除模块，KieBase随最后一个引用回收
+     */
+    public void close() {
+        kieServices.getRepository().removeKieModule(releaseId);
+    }
+
+    /**
+     * 由模块中已编译的包创建新的KieContainer，不重新编译DRL
+     */
+    private KieBase newKieBase() {
+        KieContainer kieContainer = kieServices.newKieContainer(releaseId);
+        return kieContainer.getKieBase();
+    }
+
+    private void writeFiles(Map<String, String> source, List<String> paths) {
+        for (String path : paths) {
+            String text = source.get(path);
+            if (text == null) {
+                kieFileSystem.delete(path);
+            } else {
+                kieFileSystem.write(path, text);
+            }
+        }
+    }
+
+    private IncrementalResults build(List<String> paths) {
+        return ((InternalKieBuilder) kieBuilder).createFileSet(paths.toArray(new String[0])).build();
+    }
+
+    /**
+     * 非规则部分写入header.drl，每条规则连同package、import和顶层规则属性写入单独文件，文件名由规则名决定
+     */
+    private Map<String, String> toFiles(ParsedDrl parsed) {
+        Map<String, String> result = new LinkedHashMap<>();
+        result.put(basePath + "header.drl", parsed.header);
+        parsed.rules.forEach((name, text) ->
+                result.put(basePath + "rule-" + HashUtils.sha256(name).substring(0, 16) + ".drl", parsed.preamble + text));
+        return result;
+    }
+}
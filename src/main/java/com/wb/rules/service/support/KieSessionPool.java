@@ -0,0 +1,136 @@
+package com.wb.rules.service.support;
+
+import com.wb.rules.dto.SessionPoolStats;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.kie.api.KieBase;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.rule.FactHandle;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个KieBase对应的KieSession池
+ * 空闲会话数量有上限，池空时临时创建会话，归还时超出上限的会话直接释放
+ */
+@Slf4j
+public class KieSessionPool {
+
+    @Getter
+    private final String ruleKey;
+    private final KieBase kieBase;
+    private final int maxIdle;
+    private final BlockingQueue<KieSession> idleSessions;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+
+    private volatile boolean closed;
+
+    public KieSessionPool(String ruleKey, KieBase kieBase, int maxIdle, int minIdle) {
+        this.ruleKey = ruleKey;
+        this.kieBase = kieBase;
+        this.maxIdle = Math.max(1, maxIdle);
+        this.idleSessions = new ArrayBlockingQueue<>(this.maxIdle);
+        // 预先创建部分会话，避免首批请求创建会话
+        for (int i = 0; i < Math.min(minIdle, this.maxIdle); i++) {
+            idleSessions.offer(newSession());
+        }
+    }
+
+    /**
+     * 借出会话，池空时临时创建
+     */
+    public KieSession borrow() {
+        KieSession kieSession = idleSessions.poll();
+        if (kieSession == null) {
+            misses.incrementAndGet();
+            kieSession = newSession();
+        }
+        borrowed.incrementAndGet();
+        active.incrementAndGet();
+        return kieSession;
+    }
+
+    /**
+     * 归还会话，重置工作内存后放回池中
+     */
+    public void release(KieSession kieSession) {
+        active.decrementAndGet();
+        if (closed) {
+            dispose(kieSession);
+            return;
+        }
+        try {
+            reset(kieSession);
+        } catch (Exception e) {
+            log.warn("重置KieSession失败，直接释放：规则键={}", ruleKey, e);
+            dispose(kieSession);
+            return;
+        }
+        if (!idleSessions.offer(kieSession)) {
+            discarded.incrementAndGet();
+            dispose(kieSession);
+            return;
+        }
+        // 与close()并发时，避免会话遗留在已关闭的池中
+        if (closed && idleSessions.remove(kieSession)) {
+            dispose(kieSession);
+        }
+    }
+
+    /**
+     * 执行异常的会话不再复用
+     */
+    public void invalidate(KieSession kieSession) {
+        active.decrementAndGet();
+        discarded.incrementAndGet();
+        dispose(kieSession);
+    }
+
+    /**
+     * 关闭池并释放所有空闲会话，借出中的会话在归还时释放
+     */
+    public void close() {
+        closed = true;
+        KieSession kieSession;
+        while ((kieSession = idleSessions.poll()) != null) {
+            dispose(kieSession);
+        }
+    }
+
+    public SessionPoolStats stats() {
+        return new SessionPoolStats(ruleKey, maxIdle, idleSessions.size(), active.get(),
+                created.get(), borrowed.get(), misses.get(), discarded.get());
+    }
+
+    private KieSession newSession() {
+        created.incrementAndGet();
+        return kieBase.newKieSession();
+    }
+
+    /**
+     * 清空工作内存和议程，使会话可以被下一次请求复用
+     */
+    private static void reset(KieSession kieSession) {
+        for (FactHandle factHandle : new ArrayList<>(kieSession.getFactHandles())) {
+            kieSession.delete(factHandle);
+        }
+        kieSession.getAgenda().clear();
+    }
+
+    private void dispose(KieSession kieSession) {
+        try {
+            kieSession.dispose();
+        } catch (Exception e) {
+            log.warn("释放KieSession失败：规则键={}", ruleKey, e);
+        }
+    }
+}
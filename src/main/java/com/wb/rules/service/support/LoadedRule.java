@@ -0,0 +1,114 @@
+package com.wb.rules.service.support;
+
+import lombok.Getter;
+import org.kie.api.KieBase;
+import org.kie.api.event.rule.AgendaEventListener;
+import org.kie.api.runtime.KieSession;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 已加载的规则：编译后的KieBase及其会话池
+ * 被替换后先标记为退役，等进行中的执行全部结束再释放会话池
+ */
+@Getter
+public class LoadedRule {
+
+    private static final AgendaEventListener[] NO_LISTENERS = new AgendaEventListener[0];
+
+    private final String ruleKey;
+    private final Integer version;
+    private final KieBase kieBase;
+    private final KieSessionPool sessionPool;
+    private final int ruleCount;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean retired;
+
+    public LoadedRule(String ruleKey, Integer version, KieBase kieBase, int poolMaxIdle, int poolMinIdle) {
+        this.ruleKey = ruleKey;
+        this.version = version;
+        this.kieBase = kieBase;
+        this.sessionPool = new KieSessionPool(ruleKey, kieBase, poolMaxIdle, poolMinIdle);
+        this.ruleCount = kieBase.getKiePackages().stream().mapToInt(pkg -> pkg.getRules().size()).sum();
+    }
+
+    /**
+     * 单次执行：借出会话并挂上监听器（为null的忽略）后执行action。
+     * action抛出异常时会话状态不可信，直接作废；正常结束时摘除监听器再归还
+     */
+    public <T> T execute(Function<KieSession, T> action, AgendaEventListener... listeners) {
+        return execute((kieSession, function) -> function.apply(kieSession), action, listeners);
+    }
+
+    /**
+     * 不挂监听器的单次执行，参数随调用传入：action为不捕获变量的lambda或方法引用时，每次调用没有额外的对象分配
+     */
+    public <A, T> T execute(BiFunction<KieSession, A, T> action, A argument) {
+        return execute(action, argument, NO_LISTENERS);
+    }
+
+    private <A, T> T execute(BiFunction<KieSession, A, T> action, A argument, AgendaEventListener[] listeners) {
+        enter();
+        try {
+            KieSession kieSession = sessionPool.borrow();
+            for (AgendaEventListener listener : listeners) {
+                if (listener != null) {
+                    kieSession.addEventListener(listener);
+                }
+            }
+            T result;
+            try {
+                result = action.apply(kieSession, argument);
+            } catch (RuntimeException e) {
+                sessionPool.invalidate(kieSession);
+                throw e;
+            }
+            for (AgendaEventListener listener : listeners) {
+                if (listener != null) {
+                    kieSession.removeEventListener(listener);
+                }
+            }
+            sessionPool.release(kieSession);
+            return result;
+        } finally {
+            exit();
+        }
+    }
+
+    /**
+     * 开始一次执行
+     */
+    public void enter() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * 结束一次执行，已退役且没有进行中的执行时释放
+     */
+    public void exit() {
+        if (inFlight.decrementAndGet() == 0 && retired) {
+            close();
+        }
+    }
+
+    /**
+     * 规则被替换或卸载时调用
+     */
+    public void retire() {
+        retired = true;
+        if (inFlight.get() == 0) {
+            close();
+        }
+    }
+
+    private void close() {
+        if (closed.compareAndSet(false, true)) {
+            sessionPool.close();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.wb.rules.service.support;
+
+import com.wb.rules.common.exceptions.RuleException;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 按行拆分DRL：rule ... end 之间为一条规则，其余为非规则部分（header）。
+ * 匹配前去掉注释并清空字符串内容，注释或字符串中的rule、end不会被当作规则边界；
+ * query、declare块和function体整体留在header中。
+ * preamble为每条规则单独编译时需要带上的语句：package、import和顶层的规则属性（dialect、no-loop、salience等），
+ * 顶层属性只作用于所在文件的规则，拆分后每个规则文件都要重复一份
+ */
+final class ParsedDrl {
+
+    private static final Pattern RULE_START = Pattern.compile("^\\s*rule\\s+(?:\"([^\"]*)\"|'([^']*)'|(\\S+))");
+    private static final Pattern BLOCK_END = Pattern.compile("^\\s*end\\s*$");
+    private static final Pattern BLOCK_START = Pattern.compile("^\\s*(query|declare)\\b");
+    private static final Pattern TRAILING_END = Pattern.compile("\\bend\\s*$");
+    private static final Pattern FUNCTION_START = Pattern.compile("^\\s*function\\b");
+    private static final Pattern PREAMBLE = Pattern.compile("^\\s*(package|import|dialect|no-loop|lock-on-active"
+            + "|salience|agenda-group|activation-group|ruleflow-group|auto-focus|enabled|date-effective"
+            + "|date-expires|duration|timer|calendars)\\b");
+
+    final String header;
+    final String preamble;
+    final Map<String, String> rules;
+
+    private ParsedDrl(String header, String preamble, Map<String, String> rules) {
+        this.header = header;
+        this.preamble = preamble;
+        this.rules = rules;
+    }
+
+    static ParsedDrl parse(String ruleContent) {
+        StringBuilder header = new StringBuilder();
+        StringBuilder preamble = new StringBuilder();
+        Map<String, String> rules = new LinkedHashMap<>();
+        Map<String, Integer> seen = new HashMap<>();
+        CodeScanner scanner = new CodeScanner();
+        StringBuilder rule = null;
+        String ruleName = null;
+        boolean inBlock = false; // query、declare块
+        int functionDepth = -1;  // function体的括号深度，-1表示不在function中
+        for (String line : ruleContent.split("\\R", -1)) {
+            String code = scanner.code(line);
+            if (rule == null) {
+                Matcher matcher = inBlock || functionDepth >= 0 ? null : RULE_START.matcher(line);
+                if (matcher != null && RULE_START.matcher(code).find() && matcher.find()) {
+                    ruleName = matcher.group(1) != null ? matcher.group(1)
+                            : matcher.group(2) != null ? matcher.group(2) : matcher.group(3);
+                    rule = new StringBuilder();
+                } else {
+                    header.append(line).append('\n');
+                    if (inBlock) {
+                        inBlock = !BLOCK_END.matcher(code).matches();
+                    } else if (functionDepth >= 0) {
+                        functionDepth = braces(code, functionDepth);
+                    } else if (BLOCK_START.matcher(code).find()) {
+                        inBlock = !TRAILING_END.matcher(code).find();
+                    } else if (FUNCTION_START.matcher(code).find()) {
+                        functionDepth = braces(code, 0);
+                    } else if (PREAMBLE.matcher(code).find()) {
+                        preamble.append(line).append('\n');
+                    }
+                    continue;
+                }
+            }
+            rule.append(line).append('\n');
+            if (BLOCK_END.matcher(code).matches()) {
+                // 重名规则保留各自的文件，由编译器报告重复错误
+                int count = seen.merge(ruleName, 1, Integer::sum);
+                rules.put(count == 1 ? ruleName : ruleName + "#" + count, rule.toString());
+                rule = null;
+            }
+        }
+        if (rule != null) {
+            throw new RuleException("规则语法错误: 规则 " + ruleName + " 缺少end");
+        }
+        return new ParsedDrl(header.toString(), preamble.toString(), rules);
+    }
+
+    /**
+     * 累计function体的括号深度，function声明行的左括号出现之前保持0，出现后回到0表示函数结束
+     */
+    private static int braces(String code, int depth) {
+        boolean opened = depth > 0;
+        for (int i = 0; i < code.length(); i++) {
+            char c = code.charAt(i);
+            if (c == '{') {
+                depth++;
+                opened = true;
+            } else if (c == '}') {
+                depth--;
+            }
+        }
+        return opened && depth <= 0 ? -1 : depth;
+    }
+
+    /**
+     * 逐行去掉注释并清空字符串内容，块注释可跨行
+     */
+    private static final class CodeScanner {
+        private boolean inComment;
+
+        private String code(String line) {
+            StringBuilder code = new StringBuilder(line.length());
+            int i = 0;
+            while (i < line.length()) {
+                char c = line.charAt(i);
+                if (inComment) {
+                    if (c == '*' && i + 1 < line.length() && line.charAt(i + 1) == '/') {
+                        inComment = false;
+                        i += 2;
+                        code.append(' ');
+                    } else {
+                        i++;
+                    }
+                } else if (c == '/' && i + 1 < line.length() && line.charAt(i + 1) == '*') {
+                    inComment = true;
+                    i += 2;
+                } else if (c == '/' && i + 1 < line.length() && line.charAt(i + 1) == '/') {
+                    break;
+                } else if (c == '"' || c == '\'') {
+                    int close = i + 1;
+                    while (close < line.length() && line.charAt(close) != c) {
+                        close += line.charAt(close) == '\\' ? 2 : 1;
+                    }
+                    code.append(c).append(c);
+                    i = close + 1;
+                } else {
+                    code.append(c);
+                    i++;
+                }
+            }
+            return code.toString();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.wb.rules.service.support;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 两代轮换的布隆过滤器：写入当前代，查询两代；当前代写满容量后旧代丢弃、当前代变为旧代。
+ * 内存固定为两代位数组，最近至少capacity个元素始终可查，更早的元素随轮换逐渐失效（只会变为阴性）
+ */
+public class RotatingBloomFilter {
+
+    private final int capacity;
+    private final int bitCount;
+    private final int hashCount;
+    private volatile Generation current;
+    private volatile Generation previous;
+
+    /**
+     * @param capacity 每代容量
+     * @param fpp      每代在写满时的误判率
+     */
+    public RotatingBloomFilter(int capacity, double fpp) {
+        this.capacity = Math.max(1, capacity);
+        long bits = (long) Math.ceil(-this.capacity * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.bitCount = (int) Math.min(Integer.MAX_VALUE - 63L, Math.max(64, bits));
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / this.capacity * Math.log(2)));
+        this.current = new Generation(bitCount);
+        this.previous = new Generation(bitCount);
+    }
+
+    public boolean mightContain(String value) {
+        long hash = hash(value);
+        return current.mightContain(hash) || previous.mightContain(hash);
+    }
+
+    public void put(String value) {
+        long hash = hash(value);
+        Generation generation = current;
+        generation.put(hash);
+        if (generation.count.incrementAndGet() == capacity) {
+            rotate(generation);
+        }
+    }
+
+    /**
+     * 两代位数组占用的字节数
+     */
+    public long memoryBytes() {
+        return 2L * (bitCount / 8);
+    }
+
+    private synchronized void rotate(Generation full) {
+        if (current == full) {
+            previous = full;
+            current = new Generation(bitCount);
+        }
+    }
+
+    /**
+     * 64位FNV-1a再做一次混合，高低32位作为双重哈希的两个基
+     */
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private final class Generation {
+        private final AtomicLongArray words;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private Generation(int bits) {
+            this.words = new AtomicLongArray((bits + 63) / 64);
+        }
+
+        private boolean mightContain(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < hashCount; i++) {
+                int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bitCount;
+                if ((words.get(bit >>> 6) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void put(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < hashCount; i++) {
+                int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bitCount;
+                long mask = 1L << bit;
+                int index = bit >>> 6;
+                long word;
+                do {
+                    word = words.get(index);
+                } while ((word & mask) == 0 && !words.compareAndSet(index, word, word | mask));
+            }
+        }
+    }
+}
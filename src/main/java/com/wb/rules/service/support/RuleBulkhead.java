@@ -0,0 +1,108 @@
+package com.wb.rules.service.support;
+
+import com.wb.rules.common.enums.RuleResultCode;
+import com.wb.rules.common.exceptions.RuleException;
+import com.wb.rules.dto.BulkheadStats;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * 单个规则键的并发隔离：最多同时执行maxConcurrent个任务，其余最多排队maxQueue个，
+ * 超出时立即以TOO_MANY_REQUESTS失败，不占用共享线程池。排队的任务在前一个任务结束时派发
+ */
+public class RuleBulkhead {
+
+    private final String ruleKey;
+    private final int maxConcurrent;
+    private final int maxQueue;
+    private final Executor executor;
+
+    // 以下字段由对象锁保护
+    private final Queue<Task<?>> waiting = new ArrayDeque<>();
+    private int active;
+    private long completed;
+    private long rejected;
+
+    public RuleBulkhead(String ruleKey, int maxConcurrent, int maxQueue, Executor executor) {
+        this.ruleKey = ruleKey;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.maxQueue = Math.max(0, maxQueue);
+        this.executor = executor;
+    }
+
+    public <T> CompletableFuture<T> submit(Supplier<T> supplier) {
+        Task<T> task = new Task<>(supplier);
+        synchronized (this) {
+            if (active >= maxConcurrent) {
+                if (waiting.size() >= maxQueue) {
+                    rejected++;
+                    return CompletableFuture.failedFuture(new RuleException(RuleResultCode.TOO_MANY_REQUESTS,
+                            "规则执行繁忙，请稍后重试: " + ruleKey));
+                }
+                waiting.add(task);
+                return task.future;
+            }
+            active++;
+        }
+        dispatch(task);
+        return task.future;
+    }
+
+    public synchronized BulkheadStats stats() {
+        return new BulkheadStats(ruleKey, maxConcurrent, maxQueue, active, waiting.size(), completed, rejected);
+    }
+
+    private void dispatch(Task<?> task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // 共享线程池已满，本任务计为拒绝，并把名额交给下一个排队任务
+            task.future.completeExceptionally(new RuleException(RuleResultCode.TOO_MANY_REQUESTS,
+                    "规则执行线程池已满，请稍后重试: " + ruleKey));
+            onComplete(false);
+        }
+    }
+
+    private void onComplete(boolean executed) {
+        Task<?> next;
+        synchronized (this) {
+            if (executed) {
+                completed++;
+            } else {
+                rejected++;
+            }
+            next = waiting.poll();
+            if (next == null) {
+                active--;
+            }
+        }
+        if (next != null) {
+            dispatch(next);
+        }
+    }
+
+    private final class Task<T> implements Runnable {
+        private final Supplier<T> supplier;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        private Task(Supplier<T> supplier) {
+            this.supplier = supplier;
+        }
+
+        @Override
+        public void run() {
+            try {
+                future.complete(supplier.get());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                onComplete(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.wb.rules.service.support;
+
+import com.wb.rules.dto.RuleFiring;
+import com.wb.rules.dto.RuleTrace;
+import org.kie.api.definition.rule.Rule;
+import org.kie.api.event.rule.AfterMatchFiredEvent;
+import org.kie.api.event.rule.BeforeMatchFiredEvent;
+import org.kie.api.event.rule.DefaultAgendaEventListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 单次执行的跟踪记录：按顺序记录触发的规则及其耗时，只在请求开启跟踪时创建
+ */
+public class RuleTraceListener extends DefaultAgendaEventListener {
+
+    private final List<RuleFiring> firings = new ArrayList<>();
+    private long begin;
+    private long end;
+    private long fireStart;
+
+    public void begin() {
+        begin = System.nanoTime();
+    }
+
+    public void end() {
+        end = System.nanoTime();
+    }
+
+    @Override
+    public void beforeMatchFired(BeforeMatchFiredEvent event) {
+        fireStart = System.nanoTime();
+    }
+
+    @Override
+    public void afterMatchFired(AfterMatchFiredEvent event) {
+        long now = System.nanoTime();
+        Rule rule = event.getMatch().getRule();
+        firings.add(new RuleFiring(rule.getPackageName(), rule.getName(),
+                (fireStart - begin) / 1000, (now - fireStart) / 1000));
+    }
+
+    public RuleTrace toTrace() {
+        return new RuleTrace(firings, (end - begin) / 1000);
+    }
+}
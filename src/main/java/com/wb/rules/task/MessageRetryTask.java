@@ -1,42 +1,107 @@
 package com.wb.rules.task;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.wb.rules.entity.MessageLog;
 import com.wb.rules.event.RuleUpdateEvent;
+import com.wb.rules.mq.RulePublishPipeline;
+import com.wb.rules.mq.RuleUpdateProducer;
 import com.wb.rules.service.MessageLogService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.rabbit.connection.CorrelationData;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
-import java.time.LocalDateTime;
+import java.time.Duration;
 import java.util.List;
 
+/**
+ * 消息记录重发任务，可多实例同时运行：每个实例按页认领到期消息（FOR UPDATE SKIP LOCKED），
+ * 认领时把重试时间按指数退避推后作为租约，同一条消息在一个退避周期内只会被一个实例发送。
+ * 发件箱负责规则变更的通知，本任务只重发经RuleUpdateProducer发送、未被确认的消息
+ */
 @Component
 @RequiredArgsConstructor
 @Slf4j
+@ConditionalOnProperty(name = "app.mq.retry-scan.enabled", havingValue = "true", matchIfMissing = true)
 public class MessageRetryTask {
     private final RabbitTemplate rabbitTemplate;
     private final MessageLogService messageLogService;
+    private final RuleUpdateProducer ruleUpdateProducer;
+    private final RulePublishPipeline publishPipeline;
+    private final ObjectMapper objectMapper;
 
-    @Scheduled(cron = "0/30 * * * * ?") // 每30秒执行一次
+    @Value("${app.mq.max-retry-count:3}")
+    private int maxRetryCount;
+
+    @Value("${app.mq.retry-scan.page-size:200}")
+    private int pageSize;
+
+    // 单次扫描最多认领的页数，避免一个实例长时间占用
+    @Value("${app.mq.retry-scan.max-pages:10}")
+    private int maxPages;
+
+    @Value("${app.mq.retry-scan.initial-backoff:PT1M}")
+    private Duration initialBackoff;
+
+    @Value("${app.mq.retry-scan.max-backoff:PT30M}")
+    private Duration maxBackoff;
+
+    @Scheduled(fixedDelayString = "${app.mq.retry-scan.interval:5000}")
     public void messageRetry() {
-        // 查询需要重试的消息
-        List<MessageLog> needRetryMessages = messageLogService.getNeedRetryMessages();
-        for (MessageLog message : needRetryMessages) {
-            if (message.getCount() >= 3) {
-                //超过最大尝试次数，标记失败
-                messageLogService.updateStatus(message.getMsgId(), 2);
-                log.warn("消息 {} 重试次数已超过3次，标记为失败", message.getMsgId());
-            } else {
-                // 执行重试
-                log.info("消息 {} 开始第 {} 次重试", message.getMsgId(), message.getCount() + 1);
-                RuleUpdateEvent event = new RuleUpdateEvent();
-                event.setRuleVersion(message.getRuleVersion());
-                messageLogService.updateCount(message.getMsgId(), LocalDateTime.now());
-                rabbitTemplate.convertAndSend("rule.exchange","rule.update", event, new CorrelationData(message.getMsgId()));
+        for (int page = 0; page < maxPages; page++) {
+            List<MessageLog> claimed;
+            try {
+                claimed = messageLogService.claimRetryMessages(pageSize, maxRetryCount, initialBackoff, maxBackoff);
+            } catch (Exception e) {
+                log.error("认领待重发消息失败", e);
+                return;
+            }
+            for (MessageLog message : claimed) {
+                resend(message);
+            }
+            if (claimed.size() < pageSize) {
+                return;
+            }
+        }
+    }
+
+    private void resend(MessageLog message) {
+        log.info("消息 {} 开始第 {} 次重试", message.getMsgId(), message.getCount());
+        RuleUpdateEvent event = readEvent(message);
+        event.setPublishedAt(System.currentTimeMillis());
+        CorrelationData correlationData = new CorrelationData(message.getMsgId());
+        publishPipeline.track(correlationData);
+        try {
+            rabbitTemplate.convertAndSend(ruleUpdateProducer.exchange(), ruleUpdateProducer.routingKey(), event,
+                    msg -> {
+                        msg.getMessageProperties().setCorrelationId(message.getMsgId());
+                        msg.getMessageProperties().setMessageId(message.getMsgId());
+                        return msg;
+                    }, correlationData);
+        } catch (Exception e) {
+            // 重试时间已推后，到期后再次认领
+            log.warn("消息 {} 重发失败: {}", message.getMsgId(), e.getMessage());
+        }
+    }
+
+    /**
+     * 优先使用记录中的完整事件，没有时只带版本和规则键，由消费者从Redis读取规则内容
+     */
+    private RuleUpdateEvent readEvent(MessageLog message) {
+        if (message.getMessageContent() != null) {
+            try {
+                return objectMapper.readValue(message.getMessageContent(), RuleUpdateEvent.class);
+            } catch (Exception e) {
+                log.warn("消息 {} 内容反序列化失败，只重发版本信息", message.getMsgId());
             }
         }
+        RuleUpdateEvent event = new RuleUpdateEvent();
+        event.setRuleVersion(message.getRuleVersion());
+        event.setRuleKey(message.getRuleKey());
+        return event;
     }
 }
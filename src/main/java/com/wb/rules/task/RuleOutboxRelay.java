@@ -0,0 +1,227 @@
+package com.wb.rules.task;
+
+import com.wb.rules.common.enums.MessageStatus;
+import com.wb.rules.common.exceptions.RuleException;
+import com.wb.rules.entity.RuleOutbox;
+import com.wb.rules.event.RuleUpdateEvent;
+import com.wb.rules.mq.RuleUpdateProducer;
+import com.wb.rules.service.RuleOutboxService;
+import com.wb.rules.service.RulePropagationTracker;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 发件箱中继：每次从最早的待发布记录开始按ID顺序读取，整批发送后统一等待broker确认，再批量标记状态。
+ * 集群中只有持有Redis租约的节点执行中继，其他节点空转
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "app.mq.outbox.enabled", havingValue = "true", matchIfMissing = true)
+public class RuleOutboxRelay {
+
+    private static final String LEASE_KEY = "rule_outbox_relay_lease";
+    // 租约属于本节点时续期，否则在无人持有时获取
+    private static final RedisScript<Long> LEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then "
+                    + "return redis.call('pexpire', KEYS[1], ARGV[2]) "
+                    + "elseif redis.call('set', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then return 1 "
+                    + "else return 0 end", Long.class);
+
+    private final RuleOutboxService ruleOutboxService;
+    private final RabbitTemplate rabbitTemplate;
+    private final RuleUpdateProducer ruleUpdateProducer;
+    private final RulePropagationTracker propagationTracker;
+    private final StringRedisTemplate redisTemplate;
+
+    @Value("${app.mq.outbox.batch-size:200}")
+    private int batchSize;
+
+    @Value("${app.mq.outbox.confirm-timeout:5000}")
+    private long confirmTimeout;
+
+    @Value("${app.mq.outbox.max-attempts:10}")
+    private int maxAttempts;
+
+    @Value("${app.mq.outbox.backoff-initial:PT1S}")
+    private Duration backoffInitial;
+
+    @Value("${app.mq.outbox.backoff-max:PT5M}")
+    private Duration backoffMax;
+
+    @Value("${app.mq.outbox.alert-after:PT5M}")
+    private Duration alertAfter;
+
+    @Value("${app.mq.outbox.lease:10000}")
+    private long leaseMillis;
+
+    @Value("${app.mq.outbox.retention:P7D}")
+    private Duration retention;
+
+    @Scheduled(fixedDelayString = "${app.mq.outbox.poll-interval:200}")
+    public void relay() {
+        if (!holdLease()) {
+            return;
+        }
+        try {
+            List<RuleOutbox> batch;
+            do {
+                batch = ruleOutboxService.findPending(batchSize);
+                if (batch.isEmpty() || !publish(batch)) {
+                    return;
+                }
+            } while (batch.size() == batchSize && holdLease());
+        } catch (Exception e) {
+            log.error("发件箱中继失败", e);
+        }
+    }
+
+    /**
+     * 每小时清理保留期之前已发布的记录
+     */
+    @Scheduled(cron = "0 0 * * * ?")
+    public void purge() {
+        if (!holdLease()) {
+            return;
+        }
+        LocalDateTime before = LocalDateTime.now().minus(retention);
+        int deleted;
+        int total = 0;
+        do {
+            deleted = ruleOutboxService.purgeSent(before, 1000);
+            total += deleted;
+        } while (deleted == 1000);
+        if (total > 0) {
+            log.info("清理已发布的发件箱记录：{}条", total);
+        }
+    }
+
+    /**
+     * 发布一批记录，返回是否全部处理完（确认或标记失败）。未确认的记录保持待发布并按已等待的时长退避：
+     * 等待时长取记录创建至今的时长（介于初始间隔和最大间隔之间），每次失败后约翻倍。
+     * 连接失败和确认超时是broker不可用，不计入尝试次数，一直重试并在超过告警时长后报错；
+     * 只有broker明确拒绝（nack）计入尝试次数，超过最大次数标记失败；事件无法解析的记录直接标记失败
+     */
+    private boolean publish(List<RuleOutbox> batch) {
+        Map<RuleOutbox, CorrelationData> sent = new LinkedHashMap<>();
+        List<RuleOutbox> unreachable = new ArrayList<>();
+        List<RuleOutbox> nacked = new ArrayList<>();
+        List<Long> malformed = new ArrayList<>();
+        for (RuleOutbox outbox : batch) {
+            RuleUpdateEvent event;
+            try {
+                event = ruleOutboxService.readEvent(outbox);
+            } catch (RuleException e) {
+                log.error("发件箱记录无法解析，标记为失败：ID={}, {}", outbox.getId(), e.getMessage());
+                malformed.add(outbox.getId());
+                continue;
+            }
+            try {
+                event.setPublishedAt(System.currentTimeMillis());
+                CorrelationData correlationData = new CorrelationData(outbox.getMsgId());
+                rabbitTemplate.convertAndSend(ruleUpdateProducer.exchange(), ruleUpdateProducer.routingKey(), event,
+                        message -> {
+                            message.getMessageProperties().setCorrelationId(outbox.getMsgId());
+                            message.getMessageProperties().setMessageId(outbox.getMsgId());
+                            return message;
+                        }, correlationData);
+                sent.put(outbox, correlationData);
+            } catch (Exception e) {
+                log.warn("发件箱记录发送失败：ID={}, {}", outbox.getId(), e.getMessage());
+                unreachable.add(outbox);
+            }
+        }
+
+        List<Long> acked = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(confirmTimeout);
+        for (Map.Entry<RuleOutbox, CorrelationData> entry : sent.entrySet()) {
+            try {
+                long remaining = Math.max(0, deadline - System.nanoTime());
+                CorrelationData.Confirm confirm = entry.getValue().getFuture().get(remaining, TimeUnit.NANOSECONDS);
+                if (confirm.isAck()) {
+                    acked.add(entry.getKey().getId());
+                } else {
+                    log.warn("发件箱记录被broker拒绝：ID={}, {}", entry.getKey().getId(), confirm.getReason());
+                    nacked.add(entry.getKey());
+                }
+                continue;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                // 确认超时或通道关闭，按broker不可用处理
+            }
+            unreachable.add(entry.getKey());
+        }
+        ruleOutboxService.markStatus(acked, MessageStatus.SUCCESS);
+        ruleOutboxService.markStatus(malformed, MessageStatus.FAILED);
+
+        if (unreachable.isEmpty() && nacked.isEmpty()) {
+            return true;
+        }
+        ruleOutboxService.incrementAttempts(nacked.stream().map(RuleOutbox::getId).toList());
+        List<Long> exhausted = nacked.stream().filter(outbox -> outbox.getAttempts() + 1 >= maxAttempts)
+                .map(RuleOutbox::getId).toList();
+        ruleOutboxService.markStatus(exhausted, MessageStatus.FAILED);
+        if (!exhausted.isEmpty()) {
+            log.error("发件箱记录被broker拒绝超过最大次数，标记为失败：{}", exhausted);
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        Map<Long, LocalDateTime> nextAttemptTimes = new LinkedHashMap<>();
+        List<Long> overdue = new ArrayList<>();
+        for (RuleOutbox outbox : unreachable) {
+            nextAttemptTimes.put(outbox.getId(), now.plus(backoff(outbox, now)));
+            if (outbox.getCreateTime() != null && outbox.getCreateTime().plus(alertAfter).isBefore(now)) {
+                overdue.add(outbox.getId());
+            }
+        }
+        for (RuleOutbox outbox : nacked) {
+            if (!exhausted.contains(outbox.getId())) {
+                nextAttemptTimes.put(outbox.getId(), now.plus(backoff(outbox, now)));
+            }
+        }
+        ruleOutboxService.reschedule(nextAttemptTimes);
+        if (!overdue.isEmpty()) {
+            log.error("发件箱记录超过{}仍无法发布到broker，请检查RabbitMQ：{}", alertAfter, overdue);
+        }
+        log.warn("发件箱本批未全部确认：已确认={}, broker不可用={}, 被拒绝={}", acked.size(), unreachable.size(),
+                nacked.size());
+        return false;
+    }
+
+    private Duration backoff(RuleOutbox outbox, LocalDateTime now) {
+        Duration waited = outbox.getCreateTime() == null ? Duration.ZERO : Duration.between(outbox.getCreateTime(), now);
+        if (waited.compareTo(backoffInitial) < 0) {
+            return backoffInitial;
+        }
+        return waited.compareTo(backoffMax) > 0 ? backoffMax : waited;
+    }
+
+    private boolean holdLease() {
+        try {
+            Long result = redisTemplate.execute(LEASE_SCRIPT, List.of(LEASE_KEY), propagationTracker.getNodeId(),
+                    String.valueOf(leaseMillis));
+            return result != null && result == 1;
+        } catch (Exception e) {
+            log.warn("获取发件箱中继租约失败: {}", e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.wb.rules.task;
+
+import com.wb.rules.dto.RulePreloadReport;
+import com.wb.rules.dto.RulePreloadStatus;
+import com.wb.rules.entity.DroolsRules;
+import com.wb.rules.entity.Order;
+import com.wb.rules.repository.DroolsRulesRepository;
+import com.wb.rules.service.DroolsDynamicService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 启动时并行预编译所有启用的规则，并用模拟订单预热JIT
+ * 预加载完成或超时前应用保持未就绪（readiness探针返回REFUSING_TRAFFIC）
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class RulePreloadRunner implements ApplicationRunner {
+
+    private final DroolsRulesRepository rulesRepository;
+    private final DroolsDynamicService droolsDynamicService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${app.rules.preload.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.rules.preload.threads:4}")
+    private int threads;
+
+    @Value("${app.rules.preload.timeout:120000}")
+    private long timeoutMillis;
+
+    @Value("${app.rules.preload.warmup-iterations:500}")
+    private int warmupIterations;
+
+    @Value("${app.rules.preload.warmup-amounts:50,150,600,1500,3000,60000}")
+    private List<Double> warmupAmounts;
+
+    private final Map<String, RulePreloadReport> reports = new ConcurrentHashMap<>();
+    private volatile String state = "NOT_STARTED";
+    private volatile long totalMillis;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            state = "DISABLED";
+            return;
+        }
+        AvailabilityChangeEvent.publish(eventPublisher, this, ReadinessState.REFUSING_TRAFFIC);
+        state = "RUNNING";
+        long start = System.currentTimeMillis();
+
+        List<DroolsRules> rules;
+        try {
+            rules = rulesRepository.findByStatusTrue();
+        } catch (Exception e) {
+            log.error("规则预加载失败，无法读取规则列表", e);
+            state = "FAILED";
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads),
+                new CustomizableThreadFactory("rule-preload-"));
+        try {
+            CompletableFuture<?>[] futures = rules.stream()
+                    .map(rule -> CompletableFuture.runAsync(() -> preload(rule), executor))
+                    .toArray(CompletableFuture[]::new);
+            CompletableFuture.allOf(futures).get(timeoutMillis, TimeUnit.MILLISECONDS);
+            state = "COMPLETED";
+        } catch (TimeoutException e) {
+            // 超时后不再等待，未完成的规则继续在后台编译，首次请求时按需加载
+            state = "TIMED_OUT";
+            log.warn("规则预加载超时，已完成 {}/{}", reports.size(), rules.size());
+        } catch (ExecutionException e) {
+            state = "FAILED";
+            log.error("规则预加载异常", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            state = "FAILED";
+        } finally {
+            executor.shutdown();
+            totalMillis = System.currentTimeMillis() - start;
+        }
+        log.info("规则预加载结束：状态={}, 规则数={}, 耗时={}ms", state, rules.size(), totalMillis);
+    }
+
+    public RulePreloadStatus getStatus() {
+        List<RulePreloadReport> list = new ArrayList<>(reports.values());
+        list.sort(Comparator.comparing(RulePreloadReport::getRuleKey));
+        return new RulePreloadStatus(state, totalMillis, list);
+    }
+
+    /**
+     * 编译并预热单个规则，异常只记录不影响其他规则
+     */
+    private void preload(DroolsRules rule) {
+        String ruleKey = rule.getRuleKey();
+        long compileMillis = 0;
+        try {
+            long start = System.nanoTime();
+            droolsDynamicService.preloadRule(rule);
+            compileMillis = record(ruleKey, "compile", System.nanoTime() - start);
+
+            start = System.nanoTime();
+            warmUp(ruleKey);
+            long warmupMillis = record(ruleKey, "warmup", System.nanoTime() - start);
+
+            reports.put(ruleKey, new RulePreloadReport(ruleKey, rule.getVersion(), true, compileMillis, warmupMillis, null));
+            log.info("规则预加载完成：规则键={}, 编译={}ms, 预热={}ms", ruleKey, compileMillis, warmupMillis);
+        } catch (Exception e) {
+            reports.put(ruleKey, new RulePreloadReport(ruleKey, rule.getVersion(), false, compileMillis, 0, e.getMessage()));
+            log.error("规则预加载失败：规则键={}, {}", ruleKey, e.getMessage());
+        }
+    }
+
+    /**
+     * 用覆盖不同金额区间的模拟订单执行规则，让热点路径尽早被JIT编译
+     */
+    private void warmUp(String ruleKey) {
+        if (warmupIterations <= 0 || warmupAmounts.isEmpty()) {
+            return;
+        }
+        int batchSize = 1000;
+        for (int done = 0; done < warmupIterations; done += batchSize) {
+            int size = Math.min(batchSize, warmupIterations - done);
+            List<Order> orders = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                Order order = new Order();
+                order.setAmount(warmupAmounts.get((done + i) % warmupAmounts.size()));
+                order.setScore(0.0);
+                orders.add(order);
+            }
+            droolsDynamicService.executeBatch(ruleKey, orders);
+        }
+    }
+
+    private long record(String ruleKey, String phase, long nanos) {
+        Timer.builder("rules.preload")
+                .tag("ruleKey", ruleKey)
+                .tag("phase", phase)
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
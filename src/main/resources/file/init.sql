@@ -6,12 +6,74 @@ CREATE TABLE `drools_rules` (
                                 `version` int(11) DEFAULT '1' COMMENT '版本号',
                                 `status` tinyint(1) DEFAULT '1' COMMENT '状态：0-禁用，1-启用',
                                 `description` varchar(500) DEFAULT NULL COMMENT '规则描述',
+                                `compile_mode` varchar(32) DEFAULT 'DRL' COMMENT '编译模式：DRL-MVEL解释，EXECUTABLE_MODEL-可执行模型',
+                                `template_content` text DEFAULT NULL COMMENT '规则模板(.drt)，不为空时规则内容由模板生成',
+                                `template_version` int(11) DEFAULT NULL COMMENT '规则模板版本号',
                                 `created_time` datetime DEFAULT CURRENT_TIMESTAMP,
                                 `updated_time` datetime DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
                                 PRIMARY KEY (`id`),
                                 UNIQUE KEY `uk_rule_key` (`rule_key`)
 ) ENGINE=InnoDB COMMENT='Drools规则表';
 
+CREATE TABLE `rule_template_param` (
+                                `id` bigint(20) NOT NULL AUTO_INCREMENT,
+                                `rule_key` varchar(64) NOT NULL COMMENT '规则唯一标识',
+                                `row_key` varchar(64) NOT NULL COMMENT '参数行标识，如门店编号，可在模板中以@{rowKey}引用',
+                                `params` text NOT NULL COMMENT '参数行JSON，键与模板header列对应',
+                                `created_time` datetime DEFAULT CURRENT_TIMESTAMP,
+                                `updated_time` datetime DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+                                PRIMARY KEY (`id`),
+                                UNIQUE KEY `uk_rule_row` (`rule_key`, `row_key`)
+) ENGINE=InnoDB COMMENT='规则模板参数表';
+
+CREATE TABLE `rescore_job` (
+                                `id` bigint(20) NOT NULL AUTO_INCREMENT,
+                                `rule_key` varchar(64) NOT NULL COMMENT '规则唯一标识',
+                                `status` varchar(32) NOT NULL COMMENT '状态：RUNNING、PAUSED、COMPLETED、FAILED',
+                                `last_id` bigint(20) DEFAULT '0' COMMENT '断点：已处理的最大订单ID',
+                                `total` bigint(20) DEFAULT '0' COMMENT '启动时待处理的订单数',
+                                `processed` bigint(20) DEFAULT '0' COMMENT '已处理订单数',
+                                `failed` bigint(20) DEFAULT '0' COMMENT '执行失败订单数',
+                                `max_rate` int(11) DEFAULT NULL COMMENT '每秒最多处理的订单数',
+                                `error_msg` varchar(1000) DEFAULT NULL,
+                                `start_time` datetime DEFAULT NULL,
+                                `update_time` datetime DEFAULT NULL,
+                                `end_time` datetime DEFAULT NULL,
+                                PRIMARY KEY (`id`)
+) ENGINE=InnoDB COMMENT='订单批量重算任务表';
+
+CREATE TABLE `rule_outbox` (
+                                `id` bigint(20) NOT NULL AUTO_INCREMENT COMMENT '递增ID，中继按该游标顺序发布',
+                                `msg_id` varchar(64) NOT NULL COMMENT '消息ID',
+                                `rule_key` varchar(64) DEFAULT NULL COMMENT '规则唯一标识',
+                                `rule_version` varchar(50) DEFAULT NULL COMMENT '规则版本',
+                                `payload` mediumtext NOT NULL COMMENT '完整的规则更新事件（JSON）',
+                                `status` int(11) DEFAULT '0' COMMENT '状态：0-待发布，1-已发布，2-发布失败',
+                                `attempts` int(11) DEFAULT '0' COMMENT '被broker拒绝的次数',
+                                `next_attempt_time` datetime DEFAULT NULL COMMENT '发布失败后的下次发送时间',
+                                `create_time` datetime DEFAULT NULL,
+                                `sent_time` datetime DEFAULT NULL,
+                                PRIMARY KEY (`id`),
+                                UNIQUE KEY `uk_msg_id` (`msg_id`),
+                                KEY `idx_status_id` (`status`, `id`),
+                                KEY `idx_create_time` (`create_time`)
+) ENGINE=InnoDB COMMENT='规则更新发件箱';
+
+CREATE TABLE `mail_send_log` (
+                                `msg_id` varchar(64) NOT NULL COMMENT '消息ID',
+                                `rule_version` varchar(50) DEFAULT NULL COMMENT '规则版本',
+                                `status` int(11) DEFAULT '0' COMMENT '状态：0-投递中，1-投递成功，2-投递失败',
+                                `rule_key` varchar(255) DEFAULT NULL COMMENT '规则唯一标识',
+                                `count` int(11) DEFAULT '0' COMMENT '重试次数',
+                                `try_time` datetime DEFAULT NULL COMMENT '下次重试时间，认领时按指数退避推后',
+                                `create_time` datetime DEFAULT NULL,
+                                `update_time` datetime DEFAULT NULL,
+                                `error_msg` varchar(1000) DEFAULT NULL,
+                                `message_content` mediumtext DEFAULT NULL COMMENT '完整的规则更新事件（JSON）',
+                                PRIMARY KEY (`msg_id`),
+                                KEY `idx_status_try_time` (`status`, `try_time`)
+) ENGINE=InnoDB COMMENT='规则更新消息发送记录';
+
 -- 插入示例规则
 INSERT INTO `drools_rules` (`rule_key`, `rule_name`, `rule_content`, `description`) VALUES
     ('ORDER_SCORE_RULE', '订单积分规则', '
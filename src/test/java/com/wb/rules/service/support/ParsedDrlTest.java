@@ -0,0 +1,158 @@
+package com.wb.rules.service.support;
+
+import com.wb.rules.common.exceptions.RuleException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParsedDrlTest {
+
+    @Test
+    void splitsRulesAndKeepsHeader() {
+        ParsedDrl parsed = ParsedDrl.parse("""
+                package com.wb.rules;
+                import com.wb.rules.entity.Order;
+
+                rule "first"
+                when
+                    $order: Order()
+                then
+                    $order.setScore(1);
+                end
+
+                rule second
+                when
+                then
+                end
+                """);
+
+        assertEquals(List.of("first", "second"), List.copyOf(parsed.rules.keySet()));
+        assertEquals("package com.wb.rules;\nimport com.wb.rules.entity.Order;\n", parsed.preamble);
+        assertFalse(parsed.header.contains("when"));
+        assertTrue(parsed.rules.get("first").startsWith("rule \"first\"\n"));
+        assertTrue(parsed.rules.get("first").endsWith("end\n"));
+    }
+
+    @Test
+    void copiesTopLevelAttributesIntoPreamble() {
+        ParsedDrl parsed = ParsedDrl.parse("""
+                package com.wb.rules;
+                dialect "mvel"
+                no-loop true
+                agenda-group "scoring"
+
+                rule "first"
+                    salience 10
+                when
+                then
+                end
+                """);
+
+        assertEquals("package com.wb.rules;\ndialect \"mvel\"\nno-loop true\nagenda-group \"scoring\"\n",
+                parsed.preamble);
+        assertEquals(1, parsed.rules.size());
+    }
+
+    @Test
+    void ignoresRuleBoundariesInComments() {
+        ParsedDrl parsed = ParsedDrl.parse("""
+                package com.wb.rules;
+                // rule "commented"
+                /*
+                rule "block commented"
+                end
+                */
+
+                rule "real" // 注释中的 end
+                when
+                then
+                    /* end
+                    */
+                end // 规则结束
+                """);
+
+        assertEquals(List.of("real"), List.copyOf(parsed.rules.keySet()));
+        assertTrue(parsed.rules.get("real").endsWith("end // 规则结束\n"));
+        assertTrue(parsed.header.contains("rule \"block commented\""));
+    }
+
+    @Test
+    void ignoresEndInsideStrings() {
+        ParsedDrl parsed = ParsedDrl.parse("""
+                package com.wb.rules;
+
+                rule "strings"
+                when
+                then
+                    System.out.println("end");
+                    System.out.println("\\"rule x\\" ... end");
+                end
+                """);
+
+        assertEquals(1, parsed.rules.size());
+        assertTrue(parsed.rules.get("strings").contains("System.out.println(\"end\");"));
+    }
+
+    @Test
+    void keepsQueriesDeclaresAndFunctionsInHeader() {
+        ParsedDrl parsed = ParsedDrl.parse("""
+                package com.wb.rules;
+                import com.wb.rules.entity.Order;
+
+                declare Flag
+                    salience : int
+                end
+
+                query "bigOrders"
+                    $order: Order(amount > 1000)
+                end
+
+                function int enabled(int salience) {
+                    if (salience > 0) {
+                        return 1;
+                    }
+                    return 0;
+                }
+
+                rule "after"
+                when
+                then
+                end
+                """);
+
+        assertEquals(List.of("after"), List.copyOf(parsed.rules.keySet()));
+        assertEquals("package com.wb.rules;\nimport com.wb.rules.entity.Order;\n", parsed.preamble);
+        assertTrue(parsed.header.contains("query \"bigOrders\""));
+        assertTrue(parsed.header.contains("return 0;"));
+    }
+
+    @Test
+    void keepsDuplicateRuleNamesApart() {
+        ParsedDrl parsed = ParsedDrl.parse("""
+                rule "same"
+                when
+                then
+                end
+                rule "same"
+                when
+                then
+                end
+                """);
+
+        assertEquals(List.of("same", "same#2"), List.copyOf(parsed.rules.keySet()));
+    }
+
+    @Test
+    void rejectsRuleWithoutEnd() {
+        assertThrows(RuleException.class, () -> ParsedDrl.parse("""
+                rule "open"
+                when
+                then
+                """));
+    }
+}